@@ -0,0 +1,82 @@
+package weka.classifiers.trees.m3gp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.trees.m3gp.util.Arrays;
+import weka.classifiers.trees.m3gp.util.Matrix;
+
+/**
+ * Matrix operations used by the Mahalanobis distance, for the number of
+ * dimensions of a tree
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixBenchmark {
+	@Param({"2", "5", "10", "20", "40"})
+	public int n;
+
+	@Param({"1000"})
+	public int clusterSize;
+
+	private double [][] covariance;
+	private double [][] singular;
+	private ArrayList<double[]> cluster;
+	private double [] x;
+	private double [] mu;
+
+	@Setup
+	public void setup() {
+		SyntheticData synthetic = new SyntheticData(42);
+		covariance = synthetic.covariance(n);
+		cluster = synthetic.points(clusterSize, n);
+		x = synthetic.points(1, n).get(0);
+		mu = new double[n];
+
+		// the last column repeats the first one
+		singular = Matrix.clone(covariance);
+		for(int y = 0; y < n; y++)
+			singular[y][n-1] = singular[y][0];
+	}
+
+	@Benchmark
+	public double[][] inverseMatrix() {
+		return Matrix.inverseMatrix(covariance);
+	}
+
+	@Benchmark
+	public double[][] moorepenroseInverseMatrix() {
+		return Matrix.moorepenroseInverseMatrix(singular);
+	}
+
+	@Benchmark
+	public double[][] covarianceMatrix() {
+		return Matrix.covarianceMatrix(cluster);
+	}
+
+	@Benchmark
+	public double[][] multiply() {
+		return Matrix.multiply(covariance, covariance);
+	}
+
+	@Benchmark
+	public double mahalanobisDistance() {
+		return Arrays.mahalanobisDistance(x, mu, covariance);
+	}
+}
@@ -0,0 +1,51 @@
+package weka.classifiers.trees.m3gp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import weka.classifiers.trees.m3gp.node.Node;
+
+/**
+ * Evaluation of a single dimension over all the rows of a dataset
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeBenchmark {
+	@Param({"2", "4", "6", "8"})
+	public int depth;
+
+	@Param({"1000"})
+	public int rows;
+
+	private Node node;
+	private double [][] data;
+
+	@Setup
+	public void setup() {
+		SyntheticData synthetic = new SyntheticData(42);
+		data = (double[][]) synthetic.dataset(rows, 10, 3)[0];
+		node = synthetic.fullTree(depth, 10);
+	}
+
+	@Benchmark
+	public void calculate(Blackhole bh) {
+		for(double [] row : data)
+			bh.consume(node.calculate(row));
+	}
+}
@@ -0,0 +1,63 @@
+package weka.classifiers.trees.m3gp.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.trees.m3gp.population.Population;
+
+/**
+ * A full generation (fitness, pruning, selection and reproduction) of a
+ * population on synthetic datasets. Each iteration starts from a new
+ * population and evolves it for a few generations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PopulationBenchmark {
+	@Param({"500", "5000"})
+	public int rows;
+
+	@Param({"10"})
+	public int attributes;
+
+	@Param({"3"})
+	public int classes;
+
+	private Population population;
+	private double [][] data;
+	private String [] target;
+
+	@Setup(Level.Trial)
+	public void data() {
+		Object [] dataset = new SyntheticData(42).dataset(rows, attributes, classes);
+		data = (double[][]) dataset[0];
+		target = (String[]) dataset[1];
+	}
+
+	@Setup(Level.Iteration)
+	public void population() throws IOException {
+		population = new Population(SyntheticData.terminals(attributes), data, target);
+	}
+
+	@Benchmark
+	public Population nextGeneration() throws IOException {
+		population.nextGeneration();
+		return population;
+	}
+}
@@ -0,0 +1,108 @@
+package weka.classifiers.trees.m3gp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import weka.classifiers.trees.m3gp.client.Constants;
+import weka.classifiers.trees.m3gp.node.Node;
+
+/**
+ * Deterministic synthetic datasets and trees used by the benchmarks
+ */
+public class SyntheticData {
+	private final Random random;
+
+	public SyntheticData(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Returns a dataset with gaussian classes, each one shifted on a different attribute
+	 * @param rows
+	 * @param attributes
+	 * @param classes
+	 * @return {double[][] data, String[] target}
+	 */
+	public Object[] dataset(int rows, int attributes, int classes) {
+		double [][] data = new double[rows][attributes];
+		String [] target = new String[rows];
+		for(int i = 0; i < rows; i++) {
+			int c = random.nextInt(classes);
+			target[i] = "c" + c;
+			for(int j = 0; j < attributes; j++) {
+				data[i][j] = random.nextGaussian() + (j % classes == c ? 2 : 0);
+			}
+		}
+		return new Object[] {data, target};
+	}
+
+	/**
+	 * Returns the terminals for a dataset with the given number of attributes
+	 * @param attributes
+	 */
+	public static String[] terminals(int attributes) {
+		String [] terminals = new String[attributes + 1];
+		for(int i = 0; i < attributes; i++)
+			terminals[i] = "x" + i;
+		terminals[attributes] = "r";
+		return terminals;
+	}
+
+	/**
+	 * Returns a full tree with the given depth, with random operators and terminals
+	 * @param depth
+	 * @param attributes
+	 */
+	public Node fullTree(int depth, int attributes) {
+		if(depth <= 1) {
+			return random.nextInt(attributes + 1) < attributes ?
+					new Node(random.nextInt(attributes)) : new Node(random.nextDouble());
+		}
+		return new Node(fullTree(depth - 1, attributes), fullTree(depth - 1, attributes),
+				random.nextInt(Constants.OPERATIONS.length));
+	}
+
+	/**
+	 * Returns the dimensions of a tree, each one a full tree with the given depth
+	 * @param dimensions
+	 * @param depth
+	 * @param attributes
+	 */
+	public ArrayList<Node> dimensions(int dimensions, int depth, int attributes) {
+		ArrayList<Node> dim = new ArrayList<Node>();
+		for(int i = 0; i < dimensions; i++) {
+			dim.add(fullTree(depth, attributes));
+		}
+		return dim;
+	}
+
+	/**
+	 * Returns a random symmetric positive definite matrix
+	 * @param n
+	 */
+	public double[][] covariance(int n) {
+		ArrayList<double[]> points = points(4 * n, n);
+		double [][] s = new double[n][n];
+		for(double [] p : points)
+			for(int y = 0; y < n; y++)
+				for(int x = 0; x < n; x++)
+					s[y][x] += p[y] * p[x] / points.size();
+		return s;
+	}
+
+	/**
+	 * Returns a cluster of random points
+	 * @param size
+	 * @param dimensions
+	 */
+	public ArrayList<double[]> points(int size, int dimensions) {
+		ArrayList<double[]> points = new ArrayList<double[]>();
+		for(int i = 0; i < size; i++) {
+			double [] p = new double[dimensions];
+			for(int j = 0; j < dimensions; j++)
+				p[j] = random.nextGaussian();
+			points.add(p);
+		}
+		return points;
+	}
+}
@@ -0,0 +1,64 @@
+package weka.classifiers.trees.m3gp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.trees.m3gp.node.Node;
+import weka.classifiers.trees.m3gp.tree.Tree;
+import weka.classifiers.trees.m3gp.util.Dataset;
+
+/**
+ * Train accuracy of a tree, with (cold) and without (warm) the calculation
+ * of the clusters
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmark {
+	@Param({"1", "5", "10"})
+	public int dimensions;
+
+	@Param({"1000", "10000"})
+	public int rows;
+
+	private ArrayList<Node> dim;
+	private Tree warm;
+	private Dataset data;
+	private String [] target;
+
+	@Setup
+	public void setup() {
+		SyntheticData synthetic = new SyntheticData(42);
+		Object [] dataset = synthetic.dataset(rows, 10, 3);
+		data = new Dataset((double[][]) dataset[0], false);
+		target = (String[]) dataset[1];
+		dim = synthetic.dimensions(dimensions, 4, 10);
+		warm = new Tree(dim);
+		warm.getTrainAccuracy(data, target);
+	}
+
+	@Benchmark
+	public double getTrainAccuracyCold() {
+		return new Tree(dim).getTrainAccuracy(data, target);
+	}
+
+	@Benchmark
+	public double getTrainAccuracyWarm() {
+		return warm.getTrainAccuracy(data, target);
+	}
+}
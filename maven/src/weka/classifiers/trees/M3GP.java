@@ -0,0 +1,445 @@
+package weka.classifiers.trees;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.Vector;
+
+import weka.classifiers.RandomizableClassifier;
+import weka.classifiers.trees.m3gp.client.Configuration;
+import weka.classifiers.trees.m3gp.client.Constants;
+import weka.classifiers.trees.m3gp.distance.DistanceModels;
+import weka.classifiers.trees.m3gp.population.IslandModel;
+import weka.classifiers.trees.m3gp.population.Population;
+import weka.classifiers.trees.m3gp.population.SteadyStatePopulation;
+import weka.classifiers.trees.m3gp.tree.Classification;
+import weka.classifiers.trees.m3gp.tree.Tree;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.RevisionUtils;
+import weka.core.SelectedTag;
+import weka.core.Tag;
+import weka.core.Utils;
+
+/**
+ * Weka classifier for M3GP (Multidimensional Multiclass Genetic Programming).
+ * Evolves a population of trees that map the attributes into a new space,
+ * where each class is represented by the centroid of its train points.
+ *
+ * @author Joao Batista, jbatista@di.fc.ul.pt
+ *
+ */
+public class M3GP extends RandomizableClassifier {
+	private static final long serialVersionUID = 1L;
+
+	// best tree of the train
+	private Tree m_Model = null;
+
+	// index of each class of the tree on the class attribute
+	private int [] m_ClassIndex = null;
+
+	private int m_NumClasses = 0;
+
+	public static final Tag [] TAGS_DISTANCE = {
+		new Tag(DistanceModels.MAHALANOBIS, "Mahalanobis"),
+		new Tag(DistanceModels.EUCLIDEAN, "Euclidean"),
+		new Tag(DistanceModels.DIAGONAL_COVARIANCE, "Diagonal covariance"),
+		new Tag(DistanceModels.SHRUNK_CENTROID, "Nearest shrunken centroid")
+	};
+
+	// distance model used on the projected space
+	private int m_Distance = Constants.DISTANCE_USED;
+
+	private int m_PopulationSize = Constants.POPULATION_SIZE;
+	private int m_NumGenerations = Constants.NUMBER_OF_GENERATIONS;
+	private int m_NumThreads = Constants.NUMBER_OF_THREADS;
+	private int m_NumIslands = Constants.NUMBER_OF_ISLANDS;
+	private boolean m_SteadyState = Constants.STEADY_STATE;
+	private int m_SubsampleSize = Constants.SUBSAMPLE_SIZE;
+
+	/**
+	 * Returns a string describing this classifier
+	 */
+	public String globalInfo() {
+		return "M3GP: Multidimensional Multiclass Genetic Programming. Evolves trees "
+				+ "with several dimensions that map the attributes into a new space "
+				+ "and classifies each instance according to the distance to the "
+				+ "centroid of each class on that space. The class probabilities "
+				+ "are the softmin of those distances.";
+	}
+
+	/**
+	 * Returns the capabilities of this classifier
+	 */
+	public Capabilities getCapabilities() {
+		Capabilities result = super.getCapabilities();
+		result.disableAll();
+
+		result.enable(Capability.NUMERIC_ATTRIBUTES);
+		result.enable(Capability.DATE_ATTRIBUTES);
+
+		result.enable(Capability.NOMINAL_CLASS);
+		result.enable(Capability.MISSING_CLASS_VALUES);
+
+		result.setMinimumNumberInstances(2);
+		return result;
+	}
+
+	/**
+	 * Returns the options of this classifier
+	 */
+	public Enumeration<Option> listOptions() {
+		Vector<Option> result = new Vector<Option>();
+		result.addElement(new Option("\tDistance used on the projected space\n"
+				+ "\t(1 Mahalanobis, 2 Euclidean, 3 Diagonal covariance,\n"
+				+ "\t4 Nearest shrunken centroid, default " + Constants.DISTANCE_USED + ")",
+				"distance", 1, "-distance <num>"));
+		result.addElement(new Option("\tNumber of trees of the population\n"
+				+ "\t(default " + Constants.POPULATION_SIZE + ")",
+				"population", 1, "-population <num>"));
+		result.addElement(new Option("\tMaximum number of generations\n"
+				+ "\t(default " + Constants.NUMBER_OF_GENERATIONS + ")",
+				"generations", 1, "-generations <num>"));
+		result.addElement(new Option("\tNumber of threads used by the reproduction\n"
+				+ "\t(default " + Constants.NUMBER_OF_THREADS + ")",
+				"threads", 1, "-threads <num>"));
+		result.addElement(new Option("\tNumber of islands, 1 for a single population\n"
+				+ "\t(default " + Constants.NUMBER_OF_ISLANDS + ")",
+				"islands", 1, "-islands <num>"));
+		result.addElement(new Option("\tEvolve in steady-state, without generation barriers",
+				"steady-state", 0, "-steady-state"));
+		result.addElement(new Option("\tNumber of train rows each generation is evaluated on, 0 for all\n"
+				+ "\t(default " + Constants.SUBSAMPLE_SIZE + ")",
+				"subsample", 1, "-subsample <num>"));
+		result.addAll(Collections.list(super.listOptions()));
+		return result.elements();
+	}
+
+	/**
+	 * Sets the options of this classifier
+	 * @param options
+	 */
+	public void setOptions(String [] options) throws Exception {
+		String distance = Utils.getOption("distance", options);
+		if(distance.length() != 0)
+			setDistance(new SelectedTag(Integer.parseInt(distance), TAGS_DISTANCE));
+		else
+			setDistance(new SelectedTag(Constants.DISTANCE_USED, TAGS_DISTANCE));
+
+		String population = Utils.getOption("population", options);
+		setPopulationSize(population.length() != 0 ? Integer.parseInt(population) : Constants.POPULATION_SIZE);
+
+		String generations = Utils.getOption("generations", options);
+		setNumGenerations(generations.length() != 0 ? Integer.parseInt(generations) : Constants.NUMBER_OF_GENERATIONS);
+
+		String threads = Utils.getOption("threads", options);
+		setNumThreads(threads.length() != 0 ? Integer.parseInt(threads) : Constants.NUMBER_OF_THREADS);
+
+		String islands = Utils.getOption("islands", options);
+		setNumIslands(islands.length() != 0 ? Integer.parseInt(islands) : Constants.NUMBER_OF_ISLANDS);
+
+		setSteadyState(Utils.getFlag("steady-state", options));
+
+		String subsample = Utils.getOption("subsample", options);
+		setSubsampleSize(subsample.length() != 0 ? Integer.parseInt(subsample) : Constants.SUBSAMPLE_SIZE);
+
+		super.setOptions(options);
+		Utils.checkForRemainingOptions(options);
+	}
+
+	/**
+	 * Returns the current options of this classifier
+	 */
+	public String[] getOptions() {
+		Vector<String> result = new Vector<String>();
+		result.add("-distance");
+		result.add("" + m_Distance);
+		result.add("-population");
+		result.add("" + m_PopulationSize);
+		result.add("-generations");
+		result.add("" + m_NumGenerations);
+		result.add("-threads");
+		result.add("" + m_NumThreads);
+		result.add("-islands");
+		result.add("" + m_NumIslands);
+		if(m_SteadyState)
+			result.add("-steady-state");
+		result.add("-subsample");
+		result.add("" + m_SubsampleSize);
+		Collections.addAll(result, super.getOptions());
+		return result.toArray(new String[0]);
+	}
+
+	public String distanceTipText() {
+		return "The distance used to classify on the space where the trees project the data.";
+	}
+
+	public SelectedTag getDistance() {
+		return new SelectedTag(m_Distance, TAGS_DISTANCE);
+	}
+
+	public void setDistance(SelectedTag distance) {
+		if(distance.getTags() == TAGS_DISTANCE)
+			m_Distance = distance.getSelectedTag().getID();
+	}
+
+	public String populationSizeTipText() {
+		return "The number of trees of the population.";
+	}
+
+	public int getPopulationSize() {
+		return m_PopulationSize;
+	}
+
+	public void setPopulationSize(int populationSize) {
+		m_PopulationSize = populationSize;
+	}
+
+	public String numGenerationsTipText() {
+		return "The maximum number of generations of the train.";
+	}
+
+	public int getNumGenerations() {
+		return m_NumGenerations;
+	}
+
+	public void setNumGenerations(int numGenerations) {
+		m_NumGenerations = numGenerations;
+	}
+
+	public String numThreadsTipText() {
+		return "The number of threads used to create each generation.";
+	}
+
+	public int getNumThreads() {
+		return m_NumThreads;
+	}
+
+	public void setNumThreads(int numThreads) {
+		m_NumThreads = numThreads;
+	}
+
+	public String numIslandsTipText() {
+		return "The number of islands the population is split in, each evolved by its own thread.";
+	}
+
+	public int getNumIslands() {
+		return m_NumIslands;
+	}
+
+	public void setNumIslands(int numIslands) {
+		m_NumIslands = numIslands;
+	}
+
+	public String steadyStateTipText() {
+		return "If set, the threads replace trees one at a time instead of creating whole generations.";
+	}
+
+	public boolean getSteadyState() {
+		return m_SteadyState;
+	}
+
+	public void setSteadyState(boolean steadyState) {
+		m_SteadyState = steadyState;
+	}
+
+	public String subsampleSizeTipText() {
+		return "The number of train rows, stratified and changed every generation, on which the trees are evaluated; 0 for all of them.";
+	}
+
+	public int getSubsampleSize() {
+		return m_SubsampleSize;
+	}
+
+	public void setSubsampleSize(int subsampleSize) {
+		m_SubsampleSize = subsampleSize;
+	}
+
+	/**
+	 * Returns the parameters of the train, the defaults replaced by
+	 * the options of this classifier
+	 */
+	protected Configuration getConfiguration() {
+		return Configuration.DEFAULT
+				.withDistanceUsed(m_Distance)
+				.withPopulationSize(m_PopulationSize)
+				.withNumberOfGenerations(m_NumGenerations)
+				.withNumberOfThreads(m_NumThreads)
+				.withNumberOfIslands(m_NumIslands)
+				.withSteadyState(m_SteadyState)
+				.withSubsampleSize(m_SubsampleSize)
+				.with("messages", "" + getDebug());
+	}
+
+	/**
+	 * Trains the classifier
+	 * @param data train instances
+	 */
+	public void buildClassifier(Instances data) throws Exception {
+		getCapabilities().testWithFail(data);
+
+		data = new Instances(data);
+		data.deleteWithMissingClass();
+		data.randomize(new Random(m_Seed));
+
+		double [][] values = toArray(data);
+		String [] target = new String[data.numInstances()];
+		for(int i = 0; i < target.length; i++) {
+			target[i] = data.classAttribute().value((int) data.instance(i).classValue());
+		}
+
+		Configuration conf = getConfiguration();
+		if(conf.getNumberOfIslands() > 1 || conf.getCoordinator().length() > 0) {
+			m_Model = new IslandModel(terminals(data.numAttributes() - 1), values, target, conf).train();
+		}else if(conf.isSteadyState()) {
+			m_Model = new SteadyStatePopulation(terminals(data.numAttributes() - 1), values, target, conf).train();
+		}else {
+			Population population = new Population(terminals(data.numAttributes() - 1), values, target, conf);
+			m_Model = population.train();
+		}
+		m_Model.fit(values, target);
+
+		ArrayList<String> classes = m_Model.getClasses();
+		m_NumClasses = data.numClasses();
+		m_ClassIndex = new int[classes.size()];
+		for(int i = 0; i < m_ClassIndex.length; i++) {
+			m_ClassIndex[i] = data.classAttribute().indexOfValue(classes.get(i));
+		}
+	}
+
+	/**
+	 * Returns the class probabilities of the instance
+	 * @param instance
+	 */
+	public double[] distributionForInstance(Instance instance) throws Exception {
+		double [] row = new double[instance.numAttributes() - 1];
+		copy(instance, row);
+		return softmin(Classification.distances(m_Model, row));
+	}
+
+	/**
+	 * Returns the class probabilities of all the instances in the batch,
+	 * converting the batch to a single matrix before projecting it
+	 * @param batch
+	 */
+	public double[][] distributionsForInstances(Instances batch) throws Exception {
+		double [][] distances = Classification.distances(m_Model, toArray(batch));
+		double [][] dist = new double[distances.length][];
+		for(int i = 0; i < dist.length; i++) {
+			dist[i] = softmin(distances[i]);
+		}
+		return dist;
+	}
+
+	/**
+	 * Batch prediction avoids the per instance conversions
+	 */
+	public boolean implementsMoreEfficientBatchPrediction() {
+		return true;
+	}
+
+	/**
+	 * Converts the distance to the centroid of each class of the tree into
+	 * the probability of each class of the class attribute
+	 * @param distances
+	 * @return
+	 */
+	private double[] softmin(double [] distances) {
+		double [] dist = new double[m_NumClasses];
+
+		double min = Double.POSITIVE_INFINITY;
+		for(double d : distances) {
+			if(d < min)
+				min = d;
+		}
+
+		double sum = 0;
+		for(int i = 0; i < distances.length; i++) {
+			// NaN distances (e.g. a singular covariance matrix) get no probability
+			double p = Double.isNaN(distances[i]) ? 0 : Math.exp(min - distances[i]);
+			dist[m_ClassIndex[i]] += p;
+			sum += p;
+		}
+
+		if(sum == 0 || Double.isNaN(sum)) {
+			for(int i = 0; i < m_ClassIndex.length; i++) {
+				dist[m_ClassIndex[i]] = 1.0 / m_ClassIndex.length;
+			}
+		}else {
+			for(int i = 0; i < dist.length; i++) {
+				dist[i] /= sum;
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * Converts the attributes (without the class) to a single matrix,
+	 * reading the values directly from each instance
+	 * @param data
+	 * @return
+	 */
+	private static double[][] toArray(Instances data) {
+		double [][] values = new double[data.numInstances()][data.numAttributes() - 1];
+		for(int i = 0; i < values.length; i++) {
+			copy(data.instance(i), values[i]);
+		}
+		return values;
+	}
+
+	/**
+	 * Copies the attributes of the instance, skipping the class, to row
+	 * @param instance
+	 * @param row
+	 */
+	private static void copy(Instance instance, double [] row) {
+		int classIndex = instance.classIndex();
+		for(int j = 0, k = 0; j < row.length; j++, k++) {
+			if(k == classIndex)
+				k++;
+			row[j] = instance.value(k);
+		}
+	}
+
+	/**
+	 * Returns the terminals used by the trees: one per attribute plus
+	 * the random constant
+	 * @param numAttributes
+	 * @return
+	 */
+	private static String[] terminals(int numAttributes) {
+		String [] terminals = new String [numAttributes + 1];
+		for(int i = 0; i < numAttributes; i++)
+			terminals[i] = "x" + i;
+		terminals[numAttributes] = "r";
+		return terminals;
+	}
+
+	/**
+	 * Returns the model in it's String format
+	 */
+	public String toString() {
+		if(m_Model == null)
+			return "M3GP: No model built yet.";
+		return "M3GP\n====\n\n" + m_Model.toString();
+	}
+
+	/**
+	 * Returns the revision string
+	 */
+	public String getRevision() {
+		return RevisionUtils.extract("$Revision: 1 $");
+	}
+
+	/**
+	 * Main method for testing this class
+	 * @param args
+	 */
+	public static void main(String [] args) {
+		runClassifier(new M3GP(), args);
+	}
+}
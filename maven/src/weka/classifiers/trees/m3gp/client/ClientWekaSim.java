@@ -4,7 +4,9 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 
+import weka.classifiers.trees.m3gp.population.IslandModel;
 import weka.classifiers.trees.m3gp.population.Population;
+import weka.classifiers.trees.m3gp.population.SteadyStatePopulation;
 import weka.classifiers.trees.m3gp.util.Arrays;
 import weka.classifiers.trees.m3gp.util.Data;
 
@@ -26,12 +28,18 @@ public class ClientWekaSim {
 	private static String[] terminals = null;
 	private static Population f = null;
 
+	// parameters of the train, the defaults replaced by the arguments
+	private static Configuration conf = Configuration.DEFAULT;
+
 	/**
 	 * main
-	 * @param args
+	 * @param args key=value pairs or properties files that replace the
+	 * parameters of the train (see Configuration)
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws IOException {
+		conf = Configuration.fromArgs(args);
+
 		if (Constants.SINGLE_DATASET) {
 			System.out.println("RUNNING FILE: " + singleRun);
 			dataset = singleRun;
@@ -84,7 +92,7 @@ public class ClientWekaSim {
 
 		setTerm(data);
 
-		double [][] train = new double [(int) (data.length*Constants.TRAIN_FRACTION)][data[0].length];
+		double [][] train = new double [conf.trainSize(data.length)][data[0].length];
 		double [][] test = new double [data.length - train.length][data[0].length];
 
 		for(int i = 0; i < data.length; i++){
@@ -94,11 +102,17 @@ public class ClientWekaSim {
 				test[i - train.length] = data[i];
 		}
 
-		setPopulation();
+		if(conf.getNumberOfIslands() > 1 || conf.getCoordinator().length() > 0) {
+			System.out.println(new IslandModel(terminals, data, target, conf).train());
+		}else if(conf.isSteadyState()) {
+			System.out.println(new SteadyStatePopulation(terminals, data, target, conf).train());
+		}else {
+			setPopulation();
 
-		f.train();
+			f.train();
 
-		System.out.println(f);
+			System.out.println(f);
+		}
 
 		datafile.write("    }]\n}");
 		datafile.close();
@@ -121,6 +135,6 @@ public class ClientWekaSim {
 	 * @throws IOException
 	 */
 	private static void setPopulation() throws IOException{
-		f = new Population(terminals, data, target);
+		f = new Population(terminals, data, target, conf);
 	}
 }
\ No newline at end of file
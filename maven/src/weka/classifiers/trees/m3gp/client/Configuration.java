@@ -0,0 +1,423 @@
+package weka.classifiers.trees.m3gp.client;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * Immutable set of the parameters of a train. The defaults are the values
+ * on Constants, and any of them can be replaced at runtime, from a
+ * properties file, from the command line or with the with* methods, which
+ * return a changed copy.
+ *
+ * The keys are the names of the getters without "get"/"is", e.g.:
+ *   populationSize=200
+ *   numberOfThreads=16
+ *   distanceUsed=3
+ */
+public final class Configuration implements Serializable, Cloneable{
+	private static final long serialVersionUID = 1L;
+
+	public final static Configuration DEFAULT = new Configuration();
+
+	private int populationSize = Constants.POPULATION_SIZE;
+	private int numberOfThreads = Constants.NUMBER_OF_THREADS;
+	private int numberOfIslands = Constants.NUMBER_OF_ISLANDS;
+	private int migrationInterval = Constants.MIGRATION_INTERVAL;
+	private int migrationSize = Constants.MIGRATION_SIZE;
+	private String coordinator = Constants.COORDINATOR;
+	private boolean steadyState = Constants.STEADY_STATE;
+	private int subsampleSize = Constants.SUBSAMPLE_SIZE;
+	private boolean retainProjections = Constants.RETAIN_PROJECTIONS;
+	private boolean singlePrecision = Constants.SINGLE_PRECISION;
+	private int numberOfGenerations = Constants.NUMBER_OF_GENERATIONS;
+	private int stagnationGenerations = Constants.STAGNATION_GENERATIONS;
+	private long timeBudget = Constants.TIME_BUDGET;
+	private long evaluationBudget = Constants.EVALUATION_BUDGET;
+	private double targetAccuracy = Constants.TARGET_ACCURACY;
+	private double trainFraction = Constants.TRAIN_FRACTION;
+	private double elitismFraction = Constants.ELITISM_FRACTION;
+	private double tournamentFraction = Constants.TOURNAMENT_FRACTION;
+	private int maxDepth = Constants.MAX_DEPTH;
+	private int distanceUsed = Constants.DISTANCE_USED;
+	private double shrinkage = Constants.SHRINKAGE;
+	private int fitnessType = Constants.FITNESS_TYPE;
+	private int probabilityAdaptation = Constants.PROBABILITY_ADAPTATION;
+	private double learningT = Constants.LEARNING_T;
+	private boolean messages = Constants.MESSAGES;
+	private boolean jmxMetrics = Constants.JMX_METRICS;
+
+	private final static String [] KEYS = ("populationSize numberOfThreads numberOfIslands "
+			+ "migrationInterval migrationSize coordinator steadyState subsampleSize retainProjections singlePrecision "
+			+ "numberOfGenerations stagnationGenerations timeBudget evaluationBudget targetAccuracy trainFraction "
+			+ "elitismFraction tournamentFraction maxDepth distanceUsed shrinkage fitnessType "
+			+ "probabilityAdaptation learningT messages jmxMetrics").split(" ");
+
+	private Configuration() {}
+
+	/**
+	 * Returns the default configuration with the values of p replaced
+	 * @param p
+	 * @throws IllegalArgumentException if a key is unknown or a value is invalid
+	 */
+	public static Configuration fromProperties(Properties p) {
+		return DEFAULT.with(p);
+	}
+
+	/**
+	 * Returns the configuration of the command line. Each argument is
+	 * either key=value or the path of a properties file; later arguments
+	 * replace the earlier ones
+	 * @param args
+	 * @throws IOException if a properties file can not be read
+	 * @throws IllegalArgumentException if a key is unknown or a value is invalid
+	 */
+	public static Configuration fromArgs(String [] args) throws IOException {
+		Configuration conf = DEFAULT;
+		for(String arg : args) {
+			int eq = arg.indexOf('=');
+			if(eq > 0) {
+				conf = conf.with(arg.substring(0, eq).trim(), arg.substring(eq+1).trim());
+			}else {
+				Properties p = new Properties();
+				InputStream in = new FileInputStream(arg);
+				try {
+					p.load(in);
+				}finally {
+					in.close();
+				}
+				conf = conf.with(p);
+			}
+		}
+		return conf;
+	}
+
+	/**
+	 * Returns a copy of this configuration with the values of p replaced
+	 * @param p
+	 */
+	public Configuration with(Properties p) {
+		Configuration conf = copy();
+		for(String key : p.stringPropertyNames()) {
+			conf.set(key, p.getProperty(key).trim());
+		}
+		conf.validate();
+		return conf;
+	}
+
+	/**
+	 * Returns a copy of this configuration with one value replaced
+	 * @param key
+	 * @param value
+	 */
+	public Configuration with(String key, String value) {
+		Configuration conf = copy();
+		conf.set(key, value);
+		conf.validate();
+		return conf;
+	}
+
+	public Configuration withPopulationSize(int populationSize) {
+		return with("populationSize", "" + populationSize);
+	}
+
+	public Configuration withNumberOfThreads(int numberOfThreads) {
+		return with("numberOfThreads", "" + numberOfThreads);
+	}
+
+	public Configuration withNumberOfIslands(int numberOfIslands) {
+		return with("numberOfIslands", "" + numberOfIslands);
+	}
+
+	public Configuration withSteadyState(boolean steadyState) {
+		return with("steadyState", "" + steadyState);
+	}
+
+	public Configuration withSubsampleSize(int subsampleSize) {
+		return with("subsampleSize", "" + subsampleSize);
+	}
+
+	public Configuration withRetainProjections(boolean retainProjections) {
+		return with("retainProjections", "" + retainProjections);
+	}
+
+	public Configuration withSinglePrecision(boolean singlePrecision) {
+		return with("singlePrecision", "" + singlePrecision);
+	}
+
+	public Configuration withNumberOfGenerations(int numberOfGenerations) {
+		return with("numberOfGenerations", "" + numberOfGenerations);
+	}
+
+	public Configuration withTimeBudget(long timeBudget) {
+		return with("timeBudget", "" + timeBudget);
+	}
+
+	public Configuration withEvaluationBudget(long evaluationBudget) {
+		return with("evaluationBudget", "" + evaluationBudget);
+	}
+
+	public Configuration withTrainFraction(double trainFraction) {
+		return with("trainFraction", "" + trainFraction);
+	}
+
+	public Configuration withDistanceUsed(int distanceUsed) {
+		return with("distanceUsed", "" + distanceUsed);
+	}
+
+	/**
+	 * Returns the values of this configuration as properties
+	 */
+	public Properties toProperties() {
+		Properties p = new Properties();
+		for(String key : KEYS) {
+			p.setProperty(key, get(key));
+		}
+		return p;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(String key : KEYS) {
+			sb.append(key + "=" + get(key) + "\n");
+		}
+		return sb.toString();
+	}
+
+	private Configuration copy() {
+		try {
+			return (Configuration) clone();
+		}catch(CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private void set(String key, String value) {
+		try {
+			switch(key) {
+			case "populationSize": populationSize = Integer.parseInt(value); break;
+			case "numberOfThreads": numberOfThreads = Integer.parseInt(value); break;
+			case "numberOfIslands": numberOfIslands = Integer.parseInt(value); break;
+			case "migrationInterval": migrationInterval = Integer.parseInt(value); break;
+			case "migrationSize": migrationSize = Integer.parseInt(value); break;
+			case "coordinator": coordinator = value; break;
+			case "steadyState": steadyState = Boolean.parseBoolean(value); break;
+			case "subsampleSize": subsampleSize = Integer.parseInt(value); break;
+			case "retainProjections": retainProjections = Boolean.parseBoolean(value); break;
+			case "singlePrecision": singlePrecision = Boolean.parseBoolean(value); break;
+			case "numberOfGenerations": numberOfGenerations = Integer.parseInt(value); break;
+			case "stagnationGenerations": stagnationGenerations = Integer.parseInt(value); break;
+			case "timeBudget": timeBudget = Long.parseLong(value); break;
+			case "evaluationBudget": evaluationBudget = Long.parseLong(value); break;
+			case "targetAccuracy": targetAccuracy = Double.parseDouble(value); break;
+			case "trainFraction": trainFraction = Double.parseDouble(value); break;
+			case "elitismFraction": elitismFraction = Double.parseDouble(value); break;
+			case "tournamentFraction": tournamentFraction = Double.parseDouble(value); break;
+			case "maxDepth": maxDepth = Integer.parseInt(value); break;
+			case "distanceUsed": distanceUsed = Integer.parseInt(value); break;
+			case "shrinkage": shrinkage = Double.parseDouble(value); break;
+			case "fitnessType": fitnessType = Integer.parseInt(value); break;
+			case "probabilityAdaptation": probabilityAdaptation = Integer.parseInt(value); break;
+			case "learningT": learningT = Double.parseDouble(value); break;
+			case "messages": messages = Boolean.parseBoolean(value); break;
+			case "jmxMetrics": jmxMetrics = Boolean.parseBoolean(value); break;
+			default: throw new IllegalArgumentException("Unknown configuration key: " + key);
+			}
+		}catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+		}
+	}
+
+	private String get(String key) {
+		switch(key) {
+		case "populationSize": return "" + populationSize;
+		case "numberOfThreads": return "" + numberOfThreads;
+		case "numberOfIslands": return "" + numberOfIslands;
+		case "migrationInterval": return "" + migrationInterval;
+		case "migrationSize": return "" + migrationSize;
+		case "coordinator": return coordinator;
+		case "steadyState": return "" + steadyState;
+		case "subsampleSize": return "" + subsampleSize;
+		case "retainProjections": return "" + retainProjections;
+		case "singlePrecision": return "" + singlePrecision;
+		case "numberOfGenerations": return "" + numberOfGenerations;
+		case "stagnationGenerations": return "" + stagnationGenerations;
+		case "timeBudget": return "" + timeBudget;
+		case "evaluationBudget": return "" + evaluationBudget;
+		case "targetAccuracy": return "" + targetAccuracy;
+		case "trainFraction": return "" + trainFraction;
+		case "elitismFraction": return "" + elitismFraction;
+		case "tournamentFraction": return "" + tournamentFraction;
+		case "maxDepth": return "" + maxDepth;
+		case "distanceUsed": return "" + distanceUsed;
+		case "shrinkage": return "" + shrinkage;
+		case "fitnessType": return "" + fitnessType;
+		case "probabilityAdaptation": return "" + probabilityAdaptation;
+		case "learningT": return "" + learningT;
+		case "messages": return "" + messages;
+		case "jmxMetrics": return "" + jmxMetrics;
+		default: throw new IllegalArgumentException("Unknown configuration key: " + key);
+		}
+	}
+
+	private void validate() {
+		check(populationSize > 0, "populationSize must be positive");
+		check(numberOfThreads > 0, "numberOfThreads must be positive");
+		check(numberOfIslands > 0, "numberOfIslands must be positive");
+		check(migrationInterval > 0, "migrationInterval must be positive");
+		check(migrationSize >= 0, "migrationSize must not be negative");
+		check(subsampleSize >= 0, "subsampleSize must not be negative");
+		check(trainFraction > 0 && trainFraction <= 1, "trainFraction must be in ]0,1]");
+		check(elitismFraction >= 0 && elitismFraction < 1, "elitismFraction must be in [0,1[");
+		check(tournamentFraction >= 0 && tournamentFraction <= 1, "tournamentFraction must be in [0,1]");
+		check(maxDepth > 0, "maxDepth must be positive");
+		check(distanceUsed >= 1 && distanceUsed <= 4, "distanceUsed must be 1, 2, 3 or 4");
+	}
+
+	private static void check(boolean condition, String message) {
+		if(!condition)
+			throw new IllegalArgumentException(message);
+	}
+
+	public int getPopulationSize() {
+		return populationSize;
+	}
+
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	public int getNumberOfIslands() {
+		return numberOfIslands;
+	}
+
+	public int getMigrationInterval() {
+		return migrationInterval;
+	}
+
+	public int getMigrationSize() {
+		return migrationSize;
+	}
+
+	/**
+	 * Returns host:port of the migration coordinator, empty if the
+	 * islands are all on this process
+	 */
+	public String getCoordinator() {
+		return coordinator;
+	}
+
+	/**
+	 * Returns true if the population evolves in steady-state
+	 * instead of generation by generation
+	 */
+	public boolean isSteadyState() {
+		return steadyState;
+	}
+
+	/**
+	 * Returns the number of train rows on which each generation is
+	 * evaluated, 0 for all of them
+	 */
+	public int getSubsampleSize() {
+		return subsampleSize;
+	}
+
+	/**
+	 * Returns true if the trees keep the projection of the train rows
+	 * after their clusters are calculated
+	 */
+	public boolean isRetainProjections() {
+		return retainProjections;
+	}
+
+	/**
+	 * Returns true if the trees read the values of the datasets in
+	 * single precision
+	 */
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	public int getNumberOfGenerations() {
+		return numberOfGenerations;
+	}
+
+	public int getStagnationGenerations() {
+		return stagnationGenerations;
+	}
+
+	public long getTimeBudget() {
+		return timeBudget;
+	}
+
+	public long getEvaluationBudget() {
+		return evaluationBudget;
+	}
+
+	public double getTargetAccuracy() {
+		return targetAccuracy;
+	}
+
+	public double getTrainFraction() {
+		return trainFraction;
+	}
+
+	/**
+	 * Returns the number of train rows of a dataset with n rows
+	 * (the train rows are the first ones)
+	 * @param n
+	 */
+	public int trainSize(int n) {
+		return (int)(n * trainFraction);
+	}
+
+	public double getElitismFraction() {
+		return elitismFraction;
+	}
+
+	public double getTournamentFraction() {
+		return tournamentFraction;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public int getDistanceUsed() {
+		return distanceUsed;
+	}
+
+	public double getShrinkage() {
+		return shrinkage;
+	}
+
+	public int getFitnessType() {
+		return fitnessType;
+	}
+
+	/**
+	 * Returns true if the fitness type is minimized
+	 */
+	public boolean isSmallerBetter() {
+		return fitnessType > 0;
+	}
+
+	public int getProbabilityAdaptation() {
+		return probabilityAdaptation;
+	}
+
+	public double getLearningT() {
+		return learningT;
+	}
+
+	public boolean isMessages() {
+		return messages;
+	}
+
+	public boolean isJmxMetrics() {
+		return jmxMetrics;
+	}
+}
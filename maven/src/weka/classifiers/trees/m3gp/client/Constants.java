@@ -2,6 +2,10 @@ package weka.classifiers.trees.m3gp.client;
 
 import java.io.File;
 
+/**
+ * Default values of the parameters. Those used by the train can be
+ * replaced at runtime through Configuration
+ */
 public final class Constants {	
 	public final static String[] DATASETS = "heart.csv mcd3.csv mcd10.csv movl.csv seg.csv vowel.csv wav.csv yeast.csv brazil.csv".split(" ");
 	public final static String DATASET_DIR = "datasets" + File.separator;
@@ -17,16 +21,89 @@ public final class Constants {
 	public final static double TOURNAMENT_FRACTION = 0.01;
 
 	public final static int NUMBER_OF_GENERATIONS = 100;
+	
+	/*
+	 * Stopping criteria used besides NUMBER_OF_GENERATIONS
+	 * Values <= 0 disable the criteria
+	 * STAGNATION_GENERATIONS : generations without improving the best fitness
+	 * TIME_BUDGET : wall-clock time of the train, in milliseconds
+	 * EVALUATION_BUDGET : number of fitness evaluations
+	 * TARGET_ACCURACY : train accuracy of the best tree
+	 */
+	public final static int STAGNATION_GENERATIONS = 0;
+	public final static long TIME_BUDGET = 0;
+	public final static long EVALUATION_BUDGET = 0;
+	public final static double TARGET_ACCURACY = 1.0;
 	public final static int NUMBER_OF_RUNS = 30;
 	public final static int INITIAL_RUN_ID = 0;
 	
 	public final static int POPULATION_SIZE = 500;
 	public final static int MAX_DEPTH = 6;
 	
-	public final static int DISTANCE_USED = 2; // 1-Mahalanobis; 2-Euclidean
+	/*
+	 * Distance model used to classify on the projected space
+	 * 1 : Mahalanobis
+	 * 2 : Euclidean
+	 * 3 : Diagonal covariance (mahalanobis with the variances only)
+	 * 4 : Nearest shrunken centroid, using SHRINKAGE as threshold
+	 */
+	public final static int DISTANCE_USED = 2;
+	public final static double SHRINKAGE = 0.5;
 	public final static int NUMBER_OF_GENETIC_OPERATORS = 5;
+
+	/*
+	 * Fitness function
+	 * -1 : Accuracy
+	 * 1 : Mean distance to centroid
+	 * -2 : accuracy - mean distance to centroid as a very small value
+	 * -3 : accuracy - sigmoid(#dimensions)/trainset_size
+	 * -4 : sigmoid(rms dist between clusters) - sigmoin(mean distance of points to the centroids)
+	 * -5 : accuracy - sigmoid(#nodes)/trainset_size
+	 * -6 : sigmoid(rms mhlnb dist between clusters) - sigmoin(mean distance of points to the centroids)
+	 */
+	public final static int FITNESS_TYPE = -5;
 	
 	public static final int NUMBER_OF_THREADS = 6;
+
+	/*
+	 * Island model, used when NUMBER_OF_ISLANDS > 1
+	 * The population is split in NUMBER_OF_ISLANDS islands, each evolved by its own thread,
+	 * and every MIGRATION_INTERVAL generations each island sends its MIGRATION_SIZE best
+	 * trees to the next island (ring)
+	 */
+	public static final int NUMBER_OF_ISLANDS = 1;
+	public static final int MIGRATION_INTERVAL = 10;
+	public static final int MIGRATION_SIZE = 2;
+	// host:port of the Coordinator that links islands on other processes, empty for none
+	public static final String COORDINATOR = "";
+
+	/*
+	 * Steady-state evolution: the threads select, breed and replace trees
+	 * one at a time, without waiting for each other at the end of each generation
+	 */
+	public static final boolean STEADY_STATE = false;
+
+	/*
+	 * Number of train rows on which the trees of each generation are evaluated,
+	 * a stratified sample that changes every generation; the best tree is still
+	 * evaluated on all of them. 0 : evaluates on all the train rows
+	 */
+	public static final int SUBSAMPLE_SIZE = 0;
+
+	/*
+	 * Keeps on each tree the projection of the train rows (rows x dimensions) after its
+	 * clusters are calculated. Otherwise the rows are projected into a buffer of each
+	 * thread, and the trees only keep the centroids, the distance models and the
+	 * accuracy and distances of the pass over the rows
+	 */
+	public static final boolean RETAIN_PROJECTIONS = false;
+
+	/*
+	 * The dataset (converted once by the population) and the projections of the
+	 * train rows are kept in single precision, which halves their memory.
+	 * The calculations, centroids and distances are still in double precision
+	 */
+	public static final boolean SINGLE_PRECISION = false;
 	
 	/*
 	 * Method used for the adaptation of the selection probability of the GOs
@@ -41,4 +118,7 @@ public final class Constants {
 	public final static double LEARNING_T = 0.99;
 	
 	public final static boolean MESSAGES = true;
+	
+	// Registers the metrics of the train as a JMX bean (weka.classifiers.trees.m3gp:type=Metrics)
+	public final static boolean JMX_METRICS = true;
 }
\ No newline at end of file
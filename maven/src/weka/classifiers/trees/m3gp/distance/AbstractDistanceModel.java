@@ -0,0 +1,57 @@
+package weka.classifiers.trees.m3gp.distance;
+
+import weka.classifiers.trees.m3gp.util.ClusterStatistics;
+
+/**
+ * Keeps the centroid of each class and implements the predictions
+ * on top of distance(x, c)
+ */
+public abstract class AbstractDistanceModel implements DistanceModel{
+	private static final long serialVersionUID = 1L;
+
+	// centroid of each class
+	protected double [][] mu;
+
+	public void fit(ClusterStatistics stats) {
+		mu = new double[stats.numClasses()][];
+		for(int c = 0; c < mu.length; c++) {
+			mu[c] = stats.getMean(c);
+		}
+	}
+
+	public int numClasses() {
+		return mu.length;
+	}
+
+	public double[] distances(double [] x) {
+		double [] dist = new double[mu.length];
+		for(int c = 0; c < dist.length; c++) {
+			dist[c] = distance(x, c);
+		}
+		return dist;
+	}
+
+	/**
+	 * Ties (and NaN distances) go to the class with the lower index
+	 */
+	public int predict(double [] x) {
+		double minDist = distance(x, 0);
+		int prediction = 0;
+		for(int c = 1; c < mu.length; c++) {
+			double d = distance(x, c);
+			if(d < minDist) {
+				minDist = d;
+				prediction = c;
+			}
+		}
+		return prediction;
+	}
+
+	public int[] predict(double [][] points) {
+		int [] predictions = new int[points.length];
+		for(int i = 0; i < points.length; i++) {
+			predictions[i] = predict(points[i]);
+		}
+		return predictions;
+	}
+}
@@ -0,0 +1,47 @@
+package weka.classifiers.trees.m3gp.distance;
+
+import weka.classifiers.trees.m3gp.util.ClusterStatistics;
+
+/**
+ * Mahalanobis distance using only the diagonal of the covariance matrix
+ * of each class: each dimension is scaled by its variance in the class.
+ * Costs the same as the euclidean distance. A small ridge, relative to the
+ * mean variance of the class, keeps dimensions without variance finite;
+ * a class without any variance uses the euclidean distance.
+ */
+public class DiagonalCovarianceDistance extends AbstractDistanceModel{
+	private static final long serialVersionUID = 1L;
+
+	// ridge added to the variances, relative to the mean variance
+	private static final double RIDGE = 1e-10;
+
+	private double [][] invVariance;
+
+	public void fit(ClusterStatistics stats) {
+		super.fit(stats);
+		invVariance = new double[mu.length][];
+		for(int c = 0; c < mu.length; c++) {
+			double [] var = stats.getVariance(c);
+
+			double mean = 0;
+			for(double v : var)
+				mean += v;
+			mean /= var.length;
+
+			for(int i = 0; i < var.length; i++) {
+				var[i] = mean > 0 && !Double.isInfinite(mean) ? 1.0 / (var[i] + RIDGE * mean) : 1;
+			}
+			invVariance[c] = var;
+		}
+	}
+
+	public double distance(double [] x, int c) {
+		double [] m = mu[c], w = invVariance[c];
+		double dist = 0;
+		for(int i = 0; i < x.length; i++) {
+			double d = x[i] - m[i];
+			dist += d*d*w[i];
+		}
+		return Math.sqrt(dist);
+	}
+}
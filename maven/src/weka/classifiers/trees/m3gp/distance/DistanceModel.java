@@ -0,0 +1,49 @@
+package weka.classifiers.trees.m3gp.distance;
+
+import java.io.Serializable;
+
+import weka.classifiers.trees.m3gp.util.ClusterStatistics;
+
+/**
+ * Classifier used on the space where the trees project the data.
+ * It is fitted on the statistics of the projected train points of each
+ * class and classifies a point as the class with the smaller distance.
+ */
+public interface DistanceModel extends Serializable{
+
+	/**
+	 * Fits the model to the projected train points
+	 * @param stats mean and covariance of the points of each class
+	 */
+	public void fit(ClusterStatistics stats);
+
+	/**
+	 * Returns the number of classes of the fitted model
+	 */
+	public int numClasses();
+
+	/**
+	 * Returns the distance from the projected point x to the class c
+	 * @param x
+	 * @param c
+	 */
+	public double distance(double [] x, int c);
+
+	/**
+	 * Returns the distance from the projected point x to each class
+	 * @param x
+	 */
+	public double[] distances(double [] x);
+
+	/**
+	 * Returns the index of the class closer to the projected point x
+	 * @param x
+	 */
+	public int predict(double [] x);
+
+	/**
+	 * Returns the index of the class closer to each projected point
+	 * @param points
+	 */
+	public int[] predict(double [][] points);
+}
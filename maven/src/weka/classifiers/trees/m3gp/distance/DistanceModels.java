@@ -0,0 +1,43 @@
+package weka.classifiers.trees.m3gp.distance;
+
+import weka.classifiers.trees.m3gp.client.Constants;
+
+/**
+ * Creates the distance models by their number (Configuration.getDistanceUsed)
+ */
+public final class DistanceModels {
+	public final static int MAHALANOBIS = 1;
+	public final static int EUCLIDEAN = 2;
+	public final static int DIAGONAL_COVARIANCE = 3;
+	public final static int SHRUNK_CENTROID = 4;
+
+	private DistanceModels() {}
+
+	/**
+	 * Returns a new, not fitted, distance model
+	 * @param type one of MAHALANOBIS, EUCLIDEAN, DIAGONAL_COVARIANCE or SHRUNK_CENTROID
+	 */
+	public static DistanceModel create(int type) {
+		return create(type, Constants.SHRINKAGE);
+	}
+
+	/**
+	 * Returns a new, not fitted, distance model
+	 * @param type one of MAHALANOBIS, EUCLIDEAN, DIAGONAL_COVARIANCE or SHRUNK_CENTROID
+	 * @param shrinkage threshold used by SHRUNK_CENTROID
+	 */
+	public static DistanceModel create(int type, double shrinkage) {
+		switch(type) {
+		case MAHALANOBIS:
+			return new MahalanobisDistance();
+		case EUCLIDEAN:
+			return new EuclideanDistance();
+		case DIAGONAL_COVARIANCE:
+			return new DiagonalCovarianceDistance();
+		case SHRUNK_CENTROID:
+			return new ShrunkCentroidDistance(shrinkage);
+		default:
+			throw new IllegalArgumentException("Unknown distance: " + type);
+		}
+	}
+}
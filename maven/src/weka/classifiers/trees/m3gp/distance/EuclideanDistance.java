@@ -0,0 +1,37 @@
+package weka.classifiers.trees.m3gp.distance;
+
+/**
+ * Euclidean distance to the centroid of each class
+ */
+public class EuclideanDistance extends AbstractDistanceModel{
+	private static final long serialVersionUID = 1L;
+
+	public double distance(double [] x, int c) {
+		return Math.sqrt(squaredDistance(x, mu[c]));
+	}
+
+	/**
+	 * Compares the squared distances, the square root does not change the class
+	 */
+	public int predict(double [] x) {
+		double minDist = squaredDistance(x, mu[0]);
+		int prediction = 0;
+		for(int c = 1; c < mu.length; c++) {
+			double d = squaredDistance(x, mu[c]);
+			if(d < minDist) {
+				minDist = d;
+				prediction = c;
+			}
+		}
+		return prediction;
+	}
+
+	private static double squaredDistance(double [] x, double [] m) {
+		double dist = 0;
+		for(int i = 0; i < x.length; i++) {
+			double d = x[i] - m[i];
+			dist += d*d;
+		}
+		return dist;
+	}
+}
@@ -0,0 +1,26 @@
+package weka.classifiers.trees.m3gp.distance;
+
+import weka.classifiers.trees.m3gp.util.Cholesky;
+import weka.classifiers.trees.m3gp.util.ClusterStatistics;
+
+/**
+ * Mahalanobis distance to the centroid of each class, using the
+ * Cholesky factor of the covariance matrix of the class
+ */
+public class MahalanobisDistance extends AbstractDistanceModel{
+	private static final long serialVersionUID = 1L;
+
+	private Cholesky [] covariance;
+
+	public void fit(ClusterStatistics stats) {
+		super.fit(stats);
+		covariance = new Cholesky[mu.length];
+		for(int c = 0; c < mu.length; c++) {
+			covariance[c] = new Cholesky(stats.getCovariance(c));
+		}
+	}
+
+	public double distance(double [] x, int c) {
+		return covariance[c].mahalanobisDistance(x, mu[c]);
+	}
+}
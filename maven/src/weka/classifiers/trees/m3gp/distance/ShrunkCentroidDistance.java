@@ -0,0 +1,85 @@
+package weka.classifiers.trees.m3gp.distance;
+
+import weka.classifiers.trees.m3gp.util.ClusterStatistics;
+
+/**
+ * Nearest shrunken centroid (Tibshirani et al., 2002). The centroid of each
+ * class is moved towards the overall centroid by soft thresholding, in
+ * units of the pooled within-class standard deviation, so dimensions that
+ * do not separate the classes stop counting. The distance is the euclidean
+ * distance standardized by the same deviations. The class priors are not
+ * used, so the distances stay comparable to the other models.
+ */
+public class ShrunkCentroidDistance extends AbstractDistanceModel{
+	private static final long serialVersionUID = 1L;
+
+	private double shrinkage;
+
+	// 1 / (s_i + s0)^2 for each dimension
+	private double [] weight;
+
+	/**
+	 * Constructor
+	 * @param shrinkage threshold applied to the standardized centroids
+	 */
+	public ShrunkCentroidDistance(double shrinkage) {
+		this.shrinkage = shrinkage;
+	}
+
+	public void fit(ClusterStatistics stats) {
+		int classes = stats.numClasses(), dims = stats.numDimensions();
+
+		// overall centroid and pooled within-class variance
+		int n = 0;
+		double [] overall = new double[dims];
+		double [] pooled = new double[dims];
+		for(int c = 0; c < classes; c++) {
+			int nc = stats.getCount(c);
+			double [] m = stats.getMean(c), v = stats.getVariance(c);
+			for(int i = 0; i < dims; i++) {
+				overall[i] += nc * m[i];
+				pooled[i] += nc * v[i];
+			}
+			n += nc;
+		}
+		int df = n > classes ? n - classes : Math.max(n, 1);
+		double [] s = new double[dims];
+		for(int i = 0; i < dims; i++) {
+			overall[i] /= Math.max(n, 1);
+			s[i] = Math.sqrt(pooled[i] / df);
+		}
+		double [] sorted = s.clone();
+		java.util.Arrays.sort(sorted);
+		double s0 = sorted[dims/2];
+
+		weight = new double[dims];
+		for(int i = 0; i < dims; i++) {
+			double si = s[i] + s0;
+			weight[i] = si > 0 ? 1.0 / (si*si) : 1;
+			s[i] = si > 0 ? si : 1;
+		}
+
+		mu = new double[classes][dims];
+		for(int c = 0; c < classes; c++) {
+			int nc = stats.getCount(c);
+			double mk = nc > 0 && n > 0 ? Math.sqrt(Math.max(1.0/nc - 1.0/n, 0)) : 0;
+			double [] m = stats.getMean(c);
+			for(int i = 0; i < dims; i++) {
+				double scale = mk * s[i];
+				double d = scale > 0 ? (m[i] - overall[i]) / scale : 0;
+				double shrunk = Math.signum(d) * Math.max(Math.abs(d) - shrinkage, 0);
+				mu[c][i] = overall[i] + scale * shrunk;
+			}
+		}
+	}
+
+	public double distance(double [] x, int c) {
+		double [] m = mu[c];
+		double dist = 0;
+		for(int i = 0; i < x.length; i++) {
+			double d = x[i] - m[i];
+			dist += d*d*weight[i];
+		}
+		return Math.sqrt(dist);
+	}
+}
@@ -0,0 +1,12 @@
+package weka.classifiers.trees.m3gp.metrics;
+
+/**
+ * Receives the metrics of each generation of a population
+ */
+public interface GenerationListener {
+	/**
+	 * Called by the population at the end of each generation
+	 * @param metrics timings and counters of the generation
+	 */
+	void generationFinished(GenerationMetrics metrics);
+}
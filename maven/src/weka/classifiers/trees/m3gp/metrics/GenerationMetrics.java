@@ -0,0 +1,116 @@
+package weka.classifiers.trees.m3gp.metrics;
+
+/**
+ * Timings and counters of one generation.
+ * Times are in nanoseconds. The selection time is the sum of the time spent
+ * by all the reproduction threads on selection (and on sorting the population),
+ * so it may be larger than the wall-clock time of the reproduction.
+ */
+public class GenerationMetrics {
+	private final int generation;
+
+	private final long fitnessTime;
+	private final long selectionTime;
+	private final long reproductionTime;
+	private final long pruningTime;
+	private final long loggingTime;
+
+	private final long fitnessEvaluations;
+	private final long nodeEvaluations;
+	private final long matrixInversions;
+	private final long clusterCacheHits;
+	private final long clusterCacheMisses;
+
+	private final double bestFitness;
+
+	/**
+	 * Constructor
+	 * @param generation
+	 * @param times fitness, selection, reproduction, pruning and logging times
+	 * @param start counters (Metrics.counters()) at the start of the generation
+	 * @param end counters (Metrics.counters()) at the end of the generation
+	 * @param bestFitness
+	 */
+	public GenerationMetrics(int generation, long[] times, long[] start, long[] end, double bestFitness) {
+		this.generation = generation;
+		fitnessTime = times[0];
+		selectionTime = times[1];
+		reproductionTime = times[2];
+		pruningTime = times[3];
+		loggingTime = times[4];
+		fitnessEvaluations = end[0] - start[0];
+		nodeEvaluations = end[1] - start[1];
+		matrixInversions = end[2] - start[2];
+		clusterCacheHits = end[3] - start[3];
+		clusterCacheMisses = end[4] - start[4];
+		this.bestFitness = bestFitness;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public long getFitnessTime() {
+		return fitnessTime;
+	}
+
+	public long getSelectionTime() {
+		return selectionTime;
+	}
+
+	public long getReproductionTime() {
+		return reproductionTime;
+	}
+
+	public long getPruningTime() {
+		return pruningTime;
+	}
+
+	public long getLoggingTime() {
+		return loggingTime;
+	}
+
+	/**
+	 * Returns the wall-clock time of the generation
+	 */
+	public long getTotalTime() {
+		return fitnessTime + reproductionTime + pruningTime + loggingTime;
+	}
+
+	public long getFitnessEvaluations() {
+		return fitnessEvaluations;
+	}
+
+	public long getNodeEvaluations() {
+		return nodeEvaluations;
+	}
+
+	public long getMatrixInversions() {
+		return matrixInversions;
+	}
+
+	public long getClusterCacheHits() {
+		return clusterCacheHits;
+	}
+
+	public long getClusterCacheMisses() {
+		return clusterCacheMisses;
+	}
+
+	public double getBestFitness() {
+		return bestFitness;
+	}
+
+	public String toString() {
+		return "Generation " + generation + ": "
+				+ "fitness " + fitnessTime/1000000 + "ms, "
+				+ "selection " + selectionTime/1000000 + "ms, "
+				+ "reproduction " + reproductionTime/1000000 + "ms, "
+				+ "pruning " + pruningTime/1000000 + "ms, "
+				+ "logging " + loggingTime/1000000 + "ms, "
+				+ fitnessEvaluations + " fitness evaluations, "
+				+ nodeEvaluations + " node evaluations, "
+				+ matrixInversions + " matrix inversions, "
+				+ clusterCacheHits + "/" + (clusterCacheHits + clusterCacheMisses) + " cluster cache hits";
+	}
+}
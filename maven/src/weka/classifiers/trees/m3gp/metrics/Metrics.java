@@ -0,0 +1,160 @@
+package weka.classifiers.trees.m3gp.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the hot paths of M3GP and the JMX bean that exposes them,
+ * together with the timings of the last generation of any population.
+ * The counters are global to the JVM and are updated concurrently by the
+ * reproduction threads.
+ */
+public class Metrics implements GenerationListener, MetricsMXBean {
+	public static final String OBJECT_NAME = "weka.classifiers.trees.m3gp:type=Metrics";
+
+	public static final LongAdder FITNESS_EVALUATIONS = new LongAdder();
+	// nodes calculated on every row projected by a tree, in the train and in
+	// the predictions, one row or a batch of rows, counted once per call
+	public static final LongAdder NODE_EVALUATIONS = new LongAdder();
+	public static final LongAdder MATRIX_INVERSIONS = new LongAdder();
+	public static final LongAdder CLUSTER_CACHE_HITS = new LongAdder();
+	public static final LongAdder CLUSTER_CACHE_MISSES = new LongAdder();
+	// accuracies whose evaluation stopped early because they could not reach a bound
+	public static final LongAdder RACING_ABORTS = new LongAdder();
+
+	// nanoseconds spent on selection by all threads
+	public static final LongAdder SELECTION_TIME = new LongAdder();
+
+	private static Metrics instance = null;
+
+	private volatile GenerationMetrics last = null;
+	private final LongAdder generations = new LongAdder();
+	private final long [] totalTimes = new long[5];
+
+	/**
+	 * Returns the current value of the counters, in the order used by GenerationMetrics:
+	 * fitness evaluations, node evaluations, matrix inversions, cluster cache hits and misses
+	 */
+	public static long[] counters() {
+		return new long[] {FITNESS_EVALUATIONS.sum(), NODE_EVALUATIONS.sum(), MATRIX_INVERSIONS.sum(),
+				CLUSTER_CACHE_HITS.sum(), CLUSTER_CACHE_MISSES.sum()};
+	}
+
+	/**
+	 * Returns the Metrics bean of this JVM, registering it on the platform
+	 * MBean server the first time it is called
+	 */
+	public static synchronized Metrics getInstance() {
+		if(instance == null) {
+			instance = new Metrics();
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if(!server.isRegistered(name))
+					server.registerMBean(instance, name);
+			}catch(JMException e) {
+				// metrics are still available to the listeners
+				e.printStackTrace();
+			}
+		}
+		return instance;
+	}
+
+	public void generationFinished(GenerationMetrics metrics) {
+		synchronized(totalTimes) {
+			totalTimes[0] += metrics.getFitnessTime();
+			totalTimes[1] += metrics.getSelectionTime();
+			totalTimes[2] += metrics.getReproductionTime();
+			totalTimes[3] += metrics.getPruningTime();
+			totalTimes[4] += metrics.getLoggingTime();
+		}
+		generations.increment();
+		last = metrics;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1000000.0;
+	}
+
+	private double totalTime(int phase) {
+		synchronized(totalTimes) {
+			return millis(totalTimes[phase]);
+		}
+	}
+
+	public long getGenerations() {
+		return generations.sum();
+	}
+
+	public long getFitnessEvaluations() {
+		return FITNESS_EVALUATIONS.sum();
+	}
+
+	public long getNodeEvaluations() {
+		return NODE_EVALUATIONS.sum();
+	}
+
+	public long getMatrixInversions() {
+		return MATRIX_INVERSIONS.sum();
+	}
+
+	public long getClusterCacheHits() {
+		return CLUSTER_CACHE_HITS.sum();
+	}
+
+	public long getClusterCacheMisses() {
+		return CLUSTER_CACHE_MISSES.sum();
+	}
+
+	public long getRacingAborts() {
+		return RACING_ABORTS.sum();
+	}
+
+	public double getLastGenerationTime() {
+		return last == null ? 0 : millis(last.getTotalTime());
+	}
+
+	public double getLastFitnessTime() {
+		return last == null ? 0 : millis(last.getFitnessTime());
+	}
+
+	public double getLastSelectionTime() {
+		return last == null ? 0 : millis(last.getSelectionTime());
+	}
+
+	public double getLastReproductionTime() {
+		return last == null ? 0 : millis(last.getReproductionTime());
+	}
+
+	public double getLastPruningTime() {
+		return last == null ? 0 : millis(last.getPruningTime());
+	}
+
+	public double getLastLoggingTime() {
+		return last == null ? 0 : millis(last.getLoggingTime());
+	}
+
+	public double getTotalFitnessTime() {
+		return totalTime(0);
+	}
+
+	public double getTotalSelectionTime() {
+		return totalTime(1);
+	}
+
+	public double getTotalReproductionTime() {
+		return totalTime(2);
+	}
+
+	public double getTotalPruningTime() {
+		return totalTime(3);
+	}
+
+	public double getTotalLoggingTime() {
+		return totalTime(4);
+	}
+}
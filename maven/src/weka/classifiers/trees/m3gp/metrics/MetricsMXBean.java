@@ -0,0 +1,43 @@
+package weka.classifiers.trees.m3gp.metrics;
+
+/**
+ * JMX view of the metrics of the M3GP runs of this JVM.
+ * Times are in milliseconds, counters are totals since the JVM started.
+ */
+public interface MetricsMXBean {
+	long getGenerations();
+
+	long getFitnessEvaluations();
+
+	long getNodeEvaluations();
+
+	long getMatrixInversions();
+
+	long getClusterCacheHits();
+
+	long getClusterCacheMisses();
+
+	long getRacingAborts();
+
+	double getLastGenerationTime();
+
+	double getLastFitnessTime();
+
+	double getLastSelectionTime();
+
+	double getLastReproductionTime();
+
+	double getLastPruningTime();
+
+	double getLastLoggingTime();
+
+	double getTotalFitnessTime();
+
+	double getTotalSelectionTime();
+
+	double getTotalReproductionTime();
+
+	double getTotalPruningTime();
+
+	double getTotalLoggingTime();
+}
@@ -1,5 +1,7 @@
 package weka.classifiers.trees.m3gp.node;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 import weka.classifiers.trees.m3gp.client.Constants;
@@ -18,6 +20,19 @@ public class Node implements Serializable{
 	double v;
 	Node l;
 	Node r;
+	// true for a leaf that is a constant even if v is an integer (e.g. a folded 0 or 1);
+	// otherwise, a leaf with an integer v is the index of a variable
+	boolean constant = false;
+
+	// number of nodes, depth and structural hash of the subtree, kept up to
+	// date by the methods that change the node, so they are read in O(1)
+	transient Node parent;
+	private transient int size = 1;
+	private transient int depth = 1;
+	private transient int hash;
+	// id of the NodeStore this node is on, null if it is on none; the nodes
+	// of a store are shared by several trees, so they have no parent
+	transient Object store;
 
 	/**
 	 * Basic constructor
@@ -25,6 +40,18 @@ public class Node implements Serializable{
 	 */
 	public Node(double value){
 		v = value;
+		resize();
+	}
+
+	/**
+	 * Leaf constructor
+	 * @param value
+	 * @param constant true if the value is a constant, false if it is the index of a variable
+	 */
+	public Node(double value, boolean constant){
+		v = value;
+		this.constant = constant;
+		resize();
 	}
 
 	/**
@@ -34,9 +61,8 @@ public class Node implements Serializable{
 	 * @param op
 	 */
 	public Node(Node left, Node right, double op){
-		l = left;
-		r = right;
 		v = op;
+		setChildren(left, right);
 	}
 
 	/**
@@ -53,18 +79,66 @@ public class Node implements Serializable{
 				|| depth <= 1){
 			int index = Mat.random(term.length);
 			v = index < term.length-1? index :Math.random();
+			resize();
 		}else{
 			v = Mat.random(Constants.OPERATIONS.length);
-			l = new Node(term, depth-1);
-			r = new Node(term, depth-1);
+			setChildren(new Node(term, depth-1), new Node(term, depth-1));
 		}
 	}
 
+	/**
+	 * Replaces the children of this node (both null for a leaf) and
+	 * updates the size and depth of this node and its ancestors
+	 * @param left
+	 * @param right
+	 */
+	void setChildren(Node left, Node right) {
+		l = left;
+		r = right;
+		if(l != null) {
+			l.parent = this;
+			r.parent = this;
+		}
+		resize();
+	}
+
+	/**
+	 * Recalculates the size, depth and hash of this node and then of its
+	 * ancestors, stopping at the first one that does not change: O(depth)
+	 */
+	private void resize() {
+		for(Node n = this; n != null; n = n.parent) {
+			int size = n.isLeaf() ? 1 : 1 + n.l.size + n.r.size;
+			int depth = n.isLeaf() ? 1 : 1 + Math.max(n.l.depth, n.r.depth);
+			long bits = Double.doubleToLongBits(n.v);
+			int hash = (int)(bits ^ (bits >>> 32));
+			if(n.isLeaf())
+				hash = n.isConstant() ? ~hash : hash;
+			else
+				hash = (hash * 31 + n.l.hash) * 31 + n.r.hash;
+			if(n != this && size == n.size && depth == n.depth && hash == n.hash)
+				break;
+			n.size = size;
+			n.depth = depth;
+			n.hash = hash;
+		}
+	}
+
+	/**
+	 * The annotations are not serialized, the children are read first
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		size = 1;
+		depth = 1;
+		setChildren(l, r);
+	}
+
 
 	public double calculate(double [] vals) {
 		if(isLeaf()){
 			int vi = (int)v;
-			return v != vi ? v : vals[vi];
+			return constant || v != vi ? v : vals[vi];
 		}else{
 			double d = l.calculate(vals);
 			switch((int)v){
@@ -90,10 +164,21 @@ public class Node implements Serializable{
 	 * @return
 	 */
 	public int getSize(){
-		if (isLeaf())
-			return 1;
-		else
-			return 1 + l.getSize() + r.getSize();
+		return size;
+	}
+
+	/**
+	 * Returns a node equal to this one with the children l and r, which
+	 * are equal to its children and are not linked to it (see NodeStore)
+	 */
+	Node copy(Node l, Node r) {
+		Node n = new Node(v, constant);
+		n.l = l;
+		n.r = r;
+		n.size = size;
+		n.depth = depth;
+		n.hash = hash;
+		return n;
 	}
 
 	/**
@@ -101,7 +186,7 @@ public class Node implements Serializable{
 	 */
 	public Node clone(){
 		if(isLeaf()){
-			return new Node(v);
+			return new Node(v, constant);
 		}else{
 			return new Node(l.clone(), r.clone(), v);
 		}
@@ -112,7 +197,7 @@ public class Node implements Serializable{
 	 */
 	public String toString(){
 		if(isLeaf()){
-			if (v != (int)v)
+			if (isConstant())
 				return v+"";
 			else
 				return "x"+(int)v;
@@ -127,68 +212,167 @@ public class Node implements Serializable{
 	 * for a faster response
 	 * @return
 	 */
-	private boolean isLeaf(){
+	boolean isLeaf(){
 		return l==null;// &&r==null;
 	}
 
 	public int getDepth() {
-		if(isLeaf()) {
-			return 1;
-		}else {
-			return 1 + Math.max(l.getDepth(), r.getDepth());
-		}
+		return depth;
+	}
+
+	/**
+	 * Returns true if the node is a constant leaf
+	 */
+	public boolean isConstant(){
+		return isLeaf() && (constant || v != (int)v);
 	}
 
+	/**
+	 * Simplifies this subtree, bottom up:
+	 * - subtrees with only constants are folded into a constant;
+	 * - x+0, 0+x, x-0, x*1, 1*x and x/1 become x;
+	 * - x*0 and 0*x become 0, x-x becomes 0 and x/x becomes 1;
+	 * - the children of + and * are sorted, so equal subtrees look the same.
+	 * The last rules only differ from the evaluation of the original
+	 * subtree if x is infinite, NaN, or 0 on x/x
+	 */
 	public void clean() {
-		if ( !isLeaf() ) {
-			// + - * //
-			if(v == 0 && l.isLeaf() && l.v == 0) {
-				v = r.v;
-				if(!r.isLeaf()) {
-				l = r.l;
-				r = r.r;
-				}
-			}
-			if( (v == 0 || v==1) && r.isLeaf() && r.v == 0) {
-				v = r.v;
-				if(!l.isLeaf()) {
-				l = l.l;
-				r = l.r;
-				}
+		if(isLeaf())
+			return;
+		l.clean();
+		r.clean();
+
+		if(l.isConstant() && r.isConstant()) {
+			turnConstant(operate(l.v, r.v));
+			return;
+		}
+		switch((int)v){
+		case 0://   +
+			if(r.isConstant(0)) {
+				become(l);
+			}else if(l.isConstant(0)) {
+				become(r);
 			}
-			if(v == 1 && l.isLeaf() && r.isLeaf() && r.v==l.v) {
-				l=null;
-				r=null;
-				v=0;
+			break;
+		case 1://   -
+			if(r.isConstant(0)) {
+				become(l);
+			}else if(l.equals(r)) {
+				turnConstant(0);
 			}
-			if(v == 2 && (r.isLeaf() && r.v == 0) || (l.isLeaf() && l.v == 0)  )  {
-				l = null;
-				r = null;
-				v = 0;
+			break;
+		case 2://   *
+			if(r.isConstant(1)) {
+				become(l);
+			}else if(l.isConstant(1)) {
+				become(r);
+			}else if(l.isConstant(0) || r.isConstant(0)) {
+				turnConstant(0);
 			}
-			if(v == 3 && r.isLeaf() && r.v == 0) {
-				v = l.v;
-				if(!l.isLeaf()) {
-				r= l.r;
-				l = l.l;
-				}
+			break;
+		case 3://   //
+			if(r.isConstant(1)) {
+				become(l);
+			}else if(l.equals(r)) {
+				turnConstant(1);
 			}
+			break;
 		}
+		if(!isLeaf() && (v == 0 || v == 2) && compareTo(l, r) > 0)
+			setChildren(r, l);
 	}
-	
+
+	/**
+	 * Applies the operation of this node to a and b, like calculate
+	 */
+	private double operate(double a, double b) {
+		switch((int)v){
+		case 0:
+			return a + b;
+		case 1:
+			return a - b;
+		case 2:
+			return a * b;
+		case 3:
+			return a / b;
+		}
+		return a;
+	}
+
+	private boolean isConstant(double c) {
+		return isConstant() && v == c;
+	}
+
+	private void turnConstant(double c) {
+		v = c;
+		constant = true;
+		setChildren(null, null);
+	}
+
+	/**
+	 * Turns this node into n, taking its children
+	 */
+	private void become(Node n) {
+		v = n.v;
+		constant = n.constant;
+		setChildren(n.l, n.r);
+	}
+
+	/**
+	 * Returns true if o is a subtree with the same nodes. Two nodes of
+	 * the same NodeStore are only equal if they are the same node
+	 */
+	public boolean equals(Object o) {
+		if(this == o)
+			return true;
+		if(!(o instanceof Node))
+			return false;
+		Node n = (Node) o;
+		if(store != null && store == n.store)
+			return false;
+		if(hash != n.hash || size != n.size || depth != n.depth || isConstant() != n.isConstant()
+				|| Double.doubleToLongBits(v) != Double.doubleToLongBits(n.v))
+			return false;
+		return isLeaf() || (l.equals(n.l) && r.equals(n.r));
+	}
+
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * Total order of the subtrees, used to sort the children of + and *:
+	 * smaller subtrees first, then variables, constants and operators, then the values
+	 */
+	private static int compareTo(Node a, Node b) {
+		if(a.size != b.size)
+			return a.size < b.size ? -1 : 1;
+		int ka = a.isLeaf() ? (a.isConstant() ? 1 : 0) : 2;
+		int kb = b.isLeaf() ? (b.isConstant() ? 1 : 0) : 2;
+		if(ka != kb)
+			return ka < kb ? -1 : 1;
+		int c = Double.compare(a.v, b.v);
+		if(c != 0 || a.isLeaf())
+			return c;
+		c = compareTo(a.l, b.l);
+		return c != 0 ? c : compareTo(a.r, b.r);
+	}
+
 	public void turnTerminal(String[] term) {
-		l = null;
-		r = null;
 		int index = Mat.random(term.length);
 		v = index < term.length-1? index :Math.random();
+		constant = false;
+		setChildren(null, null);
 	}
 	
 	public void changeValue(String[] term) {
 		if( isLeaf()){
+			constant = false;
 			int index = Mat.random(term.length);
 			v = index < term.length-1? index :Math.random();
 		}else{
 			v = Mat.random(Constants.OPERATIONS.length);
 		}
+		resize();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package weka.classifiers.trees.m3gp.node;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary format of a node, in prefix order:
+ * - operation: one byte with the index of the operation;
+ * - variable: VARIABLE and the index as a short;
+ * - constant: CONSTANT and the value as a double.
+ */
+public class NodeCodec {
+	private final static byte VARIABLE = -1;
+	private final static byte CONSTANT = -2;
+
+	/**
+	 * Writes the node and its children
+	 * @param out
+	 * @param n
+	 * @throws IOException
+	 */
+	public static void write(DataOutput out, Node n) throws IOException {
+		if(n.l == null) {
+			if(!n.isConstant()) {
+				out.writeByte(VARIABLE);
+				out.writeShort((int) n.v);
+			}else {
+				out.writeByte(CONSTANT);
+				out.writeDouble(n.v);
+			}
+		}else {
+			out.writeByte((int) n.v);
+			write(out, n.l);
+			write(out, n.r);
+		}
+	}
+
+	/**
+	 * Reads a node written by write
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static Node read(DataInput in) throws IOException {
+		byte tag = in.readByte();
+		switch(tag) {
+		case VARIABLE:
+			return new Node(in.readShort());
+		case CONSTANT:
+			return new Node(in.readDouble(), true);
+		default:
+			if(tag < 0)
+				throw new IOException("Invalid node tag: " + tag);
+			Node l = read(in);
+			Node r = read(in);
+			return new Node(l, r, tag);
+		}
+	}
+}
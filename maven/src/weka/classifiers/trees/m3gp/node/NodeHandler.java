@@ -9,7 +9,8 @@ import weka.classifiers.trees.m3gp.util.Mat;
  */
 public class NodeHandler {
 	/**
-	 * Returns a random node inside n
+	 * Returns a random node inside n, in O(depth) since the nodes
+	 * know the size of their subtrees
 	 * @param n
 	 * @return
 	 */
@@ -23,9 +24,9 @@ public class NodeHandler {
 	 * @param r2 target node
 	 */
 	public static void redirect(Node r1, Node r2) {
-		r1.l = r2.l;
-		r1.r = r2.r;
 		r1.v = r2.v;
+		r1.constant = r2.constant;
+		r1.setChildren(r2.l, r2.r);
 	}
 
 	public static void swap(Node r1, Node r2) {
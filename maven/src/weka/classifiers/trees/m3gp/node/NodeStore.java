@@ -0,0 +1,104 @@
+package weka.classifiers.trees.m3gp.node;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash-consing of subtrees: intern returns, for each subtree, the one
+ * node of the store with the same structure, so equal subtrees of
+ * different trees (e.g. inherited from the same ancestor) are kept in
+ * memory once, and are the same object (n1 == n2).
+ *
+ * Since the children of a node of the store are also nodes of the store,
+ * each node is found by its value and the identity of its children, in
+ * O(1), and two nodes of the store are equal only if they are the same
+ * node, which Node.equals checks first. The nodes of the store have no
+ * parent, since they are shared, and must not be changed: the genetic
+ * operators already change only copies (Tree.cloneDimensions).
+ *
+ * The populations use a new store for each generation, so the store only
+ * keeps the nodes of the trees alive. The nodes do not keep their store
+ * alive, only its id.
+ */
+public class NodeStore {
+	private ConcurrentHashMap<Key, Node> nodes = new ConcurrentHashMap<Key, Node>();
+	// marks the nodes of this store
+	private final Object id = new Object();
+
+	/**
+	 * Returns the node of the store equal to n, adding the nodes of n
+	 * that have no equal on the store. The children of the nodes of n
+	 * that are on no store may be replaced by equal nodes of the store;
+	 * the nodes of other stores, shared by other trees, are never changed
+	 * and are copied instead
+	 * @param n
+	 */
+	public Node intern(Node n) {
+		if(n.store == id)
+			return n;
+		Key key;
+		Node l = null, r = null;
+		if(n.isLeaf()) {
+			key = new Key(n.v, n.isConstant(), null, null);
+		}else {
+			l = intern(n.l);
+			r = intern(n.r);
+			key = new Key(n.v, false, l, r);
+		}
+		Node previous = nodes.get(key);
+		if(previous != null)
+			return previous;
+		if(n.store != null) {
+			// shared by the trees of another store, which may still read it
+			n = n.copy(l, r);
+		}else if(l != n.l || r != n.r) {
+			// equal subtrees, so the size and depth of n do not change
+			n.l = l;
+			n.r = r;
+		}
+		// marked before it is published, since the other threads take the
+		// nodes of the store as shared
+		n.parent = null;
+		n.store = id;
+		previous = nodes.putIfAbsent(key, n);
+		if(previous != null) {
+			// n was not published, so it is still private
+			n.store = null;
+			return previous;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the number of distinct subtrees on the store
+	 */
+	public int size() {
+		return nodes.size();
+	}
+
+	private static class Key{
+		final double v;
+		final boolean constant;
+		final Node l, r;
+
+		Key(double v, boolean constant, Node l, Node r) {
+			this.v = v;
+			this.constant = constant;
+			this.l = l;
+			this.r = r;
+		}
+
+		public boolean equals(Object o) {
+			Key k = (Key) o;
+			return l == k.l && r == k.r && constant == k.constant
+					&& Double.doubleToLongBits(v) == Double.doubleToLongBits(k.v);
+		}
+
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(v);
+			int h = (int)(bits ^ (bits >>> 32));
+			h = h * 31 + System.identityHashCode(l);
+			h = h * 31 + System.identityHashCode(r);
+			return constant ? ~h : h;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package weka.classifiers.trees.m3gp.node;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The dimensions of a tree compiled into a single program: a list of
+ * instructions where each distinct subtree, of any dimension, is one
+ * instruction calculated once per row, whose result is reused by every
+ * node that has that subtree as a child (a DAG instead of a tree).
+ *
+ * The instructions are in postorder, so running them in order calculates
+ * the operands of each one before it; register i holds the result of
+ * instruction i.
+ */
+public class Program {
+	private static final byte VARIABLE = -1;
+	private static final byte CONSTANT = -2;
+
+	// operation (or VARIABLE/CONSTANT), operands and constant of each instruction
+	private final byte [] op;
+	private final int [] a;
+	private final int [] b;
+	private final double [] value;
+
+	// register with the result of each dimension
+	private final int [] outputs;
+
+	private int n = 0;
+	private HashMap<Key, Integer> compiled = new HashMap<Key, Integer>();
+
+	/**
+	 * Compiles the dimensions
+	 * @param dimensions
+	 */
+	public Program(List<Node> dimensions) {
+		int size = 0;
+		for(Node d : dimensions)
+			size += d.getSize();
+		op = new byte[size];
+		a = new int[size];
+		b = new int[size];
+		value = new double[size];
+
+		outputs = new int[dimensions.size()];
+		for(int i = 0; i < outputs.length; i++)
+			outputs[i] = compile(dimensions.get(i));
+		compiled = null;
+	}
+
+	/**
+	 * Returns the register of the subtree n, adding its instruction
+	 * if it is not on the program yet
+	 */
+	private int compile(Node node) {
+		Key key;
+		if(node.isLeaf()) {
+			key = node.isConstant() ? new Key(CONSTANT, 0, 0, node.v) : new Key(VARIABLE, (int) node.v, 0, 0);
+		}else {
+			int l = compile(node.l);
+			int r = compile(node.r);
+			key = new Key((byte) node.v, l, r, 0);
+		}
+		Integer register = compiled.get(key);
+		if(register == null) {
+			register = n;
+			op[n] = key.op;
+			a[n] = key.a;
+			b[n] = key.b;
+			value[n] = key.value;
+			n++;
+			compiled.put(key, register);
+		}
+		return register;
+	}
+
+	/**
+	 * Returns the number of instructions, i.e. of distinct subtrees
+	 */
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the number of dimensions
+	 */
+	public int outputs() {
+		return outputs.length;
+	}
+
+	/**
+	 * Returns a new array for the registers used by calculate
+	 */
+	public double [] registers() {
+		return new double[n];
+	}
+
+	/**
+	 * Calculates the value of each dimension on the row x
+	 * @param x
+	 * @param registers array from registers(), overwritten
+	 * @param result array with one position per dimension
+	 */
+	public void calculate(double [] x, double [] registers, double [] result) {
+		for(int i = 0; i < n; i++) {
+			if(op[i] == VARIABLE)
+				registers[i] = x[a[i]];
+			else
+				execute(i, registers);
+		}
+		for(int d = 0; d < outputs.length; d++)
+			result[d] = registers[outputs[d]];
+	}
+
+	/**
+	 * Calculates the value of each dimension on the row x, stored in
+	 * single precision. The calculations are still in double precision,
+	 * only the result is rounded
+	 * @param x
+	 * @param registers array from registers(), overwritten
+	 * @param result array with one position per dimension
+	 */
+	public void calculate(float [] x, double [] registers, float [] result) {
+		for(int i = 0; i < n; i++) {
+			if(op[i] == VARIABLE)
+				registers[i] = x[a[i]];
+			else
+				execute(i, registers);
+		}
+		for(int d = 0; d < outputs.length; d++)
+			result[d] = (float) registers[outputs[d]];
+	}
+
+	/**
+	 * Like calculate(x, registers, result) with x and result in single
+	 * precision, but the result is kept on a double array
+	 */
+	public void calculate(float [] x, double [] registers, double [] result) {
+		for(int i = 0; i < n; i++) {
+			if(op[i] == VARIABLE)
+				registers[i] = x[a[i]];
+			else
+				execute(i, registers);
+		}
+		for(int d = 0; d < outputs.length; d++)
+			result[d] = (float) registers[outputs[d]];
+	}
+
+	/**
+	 * Like calculate(x, registers, result), rounding the values of x and
+	 * the result to single precision, like the rows of a dataset in single precision
+	 */
+	public void calculateSinglePrecision(double [] x, double [] registers, double [] result) {
+		for(int i = 0; i < n; i++) {
+			if(op[i] == VARIABLE)
+				registers[i] = (float) x[a[i]];
+			else
+				execute(i, registers);
+		}
+		for(int d = 0; d < outputs.length; d++)
+			result[d] = (float) registers[outputs[d]];
+	}
+
+	/**
+	 * Calculates instruction i, which is not a variable
+	 */
+	private void execute(int i, double [] registers) {
+		switch(op[i]) {
+		case CONSTANT:
+			registers[i] = value[i];
+			break;
+		case 0://   +
+			registers[i] = registers[a[i]] + registers[b[i]];
+			break;
+		case 1://   -
+			registers[i] = registers[a[i]] - registers[b[i]];
+			break;
+		case 2://   *
+			registers[i] = registers[a[i]] * registers[b[i]];
+			break;
+		case 3://   //
+			registers[i] = registers[a[i]] / registers[b[i]];
+			break;
+		default:
+			registers[i] = registers[a[i]];
+		}
+	}
+
+	/**
+	 * Calculates the value of each dimension on the row x
+	 * @param x
+	 * @return
+	 */
+	public double [] calculate(double [] x) {
+		double [] result = new double[outputs.length];
+		calculate(x, registers(), result);
+		return result;
+	}
+
+	// an instruction, used to find the subtrees already compiled
+	private static class Key{
+		final byte op;
+		final int a, b;
+		final double value;
+
+		Key(byte op, int a, int b, double value) {
+			this.op = op;
+			this.a = a;
+			this.b = b;
+			this.value = value;
+		}
+
+		public boolean equals(Object o) {
+			Key k = (Key) o;
+			return op == k.op && a == k.a && b == k.b
+					&& Double.doubleToLongBits(value) == Double.doubleToLongBits(k.value);
+		}
+
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(value);
+			return ((op * 31 + a) * 31 + b) * 31 + (int)(bits ^ (bits >>> 32));
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package weka.classifiers.trees.m3gp.population;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import weka.classifiers.trees.m3gp.client.Configuration;
+import weka.classifiers.trees.m3gp.tree.Tree;
+import weka.classifiers.trees.m3gp.tree.TreeCodec;
+
+/**
+ * Coordinator of the island processes (see RemoteMigration).
+ * The connected processes form a ring, by order of connection: the trees
+ * sent by a process are forwarded, without being decoded, to the next one.
+ * The coordinator also keeps the best tree reported by the processes.
+ *
+ * Messages: type (byte), length of the payload (int) and the payload.
+ * - MIGRANTS: trees in the TreeCodec.toBytes format;
+ * - BEST: train fitness (double) followed by one tree.
+ * A connection that sends a length out of [0, MAX_PAYLOAD], or a message
+ * that can not be decoded, is dropped.
+ *
+ * Usage: Coordinator port [key=value ...]
+ */
+public class Coordinator implements Runnable{
+	final static byte MIGRANTS = 1;
+	final static byte BEST = 2;
+	// largest payload accepted, so a bad length does not allocate the heap
+	final static int MAX_PAYLOAD = 64 << 20;
+
+	private ServerSocket server;
+	private Configuration conf;
+	private CopyOnWriteArrayList<Connection> ring = new CopyOnWriteArrayList<Connection>();
+
+	private Tree bestTree = null;
+	private double bestFitness = Double.NaN;
+
+	/**
+	 * Constructor
+	 * @param port port to listen to, 0 for any
+	 * @param conf used to decode and compare the best trees
+	 * @throws IOException
+	 */
+	public Coordinator(int port, Configuration conf) throws IOException {
+		this.conf = conf;
+		server = new ServerSocket(port);
+	}
+
+	/**
+	 * Returns the port the coordinator is listening to
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until close is called
+	 */
+	public void run() {
+		try {
+			while(true) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				Connection c = new Connection(socket);
+				ring.add(c);
+				message("Process connected: " + socket.getRemoteSocketAddress() + " (" + ring.size() + " in the ring)");
+				Thread t = new Thread(c, "m3gp-coordinator-" + socket.getRemoteSocketAddress());
+				t.setDaemon(true);
+				t.start();
+			}
+		}catch(IOException e) {
+			// the server was closed
+		}
+	}
+
+	/**
+	 * Stops accepting connections and closes the existing ones
+	 */
+	public void close() throws IOException {
+		server.close();
+		for(Connection c : ring)
+			c.close();
+	}
+
+	/**
+	 * Returns the best tree reported so far, or null if none was reported
+	 */
+	public synchronized Tree getBestTree() {
+		return bestTree;
+	}
+
+	/**
+	 * Returns the train fitness of the best tree, NaN if none was reported
+	 */
+	public synchronized double getBestFitness() {
+		return bestFitness;
+	}
+
+	private synchronized void best(byte [] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		if(payload.length < 8)
+			throw new IOException("Invalid best tree message: " + payload.length + " bytes");
+		double fitness = in.readDouble();
+		byte [] tree = new byte[payload.length - 8];
+		in.readFully(tree);
+
+		if(Double.isNaN(bestFitness) || (conf.isSmallerBetter() ? fitness < bestFitness : fitness > bestFitness)) {
+			bestFitness = fitness;
+			bestTree = TreeCodec.fromBytes(tree, conf)[0];
+			message("New global best (" + fitness + "):\n" + bestTree);
+		}
+	}
+
+	/**
+	 * Forwards the trees to the process after c in the ring
+	 */
+	private void forward(Connection c, byte [] payload) {
+		int i = ring.indexOf(c);
+		if(i < 0 || ring.size() < 2)
+			return;
+		Connection next = ring.get((i + 1) % ring.size());
+		try {
+			next.write(MIGRANTS, payload);
+		}catch(IOException e) {
+			ring.remove(next);
+		}
+	}
+
+	/**
+	 * Reads the length and the payload of a message
+	 * @param in
+	 * @throws IOException if the length is out of [0, MAX_PAYLOAD]
+	 */
+	static byte[] readPayload(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0 || length > MAX_PAYLOAD)
+			throw new IOException("Invalid payload length: " + length);
+		byte [] payload = new byte[length];
+		in.readFully(payload);
+		return payload;
+	}
+
+	private void message(String s) {
+		if(conf.isMessages())
+			System.out.println(s);
+	}
+
+	private class Connection implements Runnable{
+		private Socket socket;
+		private DataOutputStream out;
+
+		public Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		public void run() {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				while(true) {
+					byte type = in.readByte();
+					byte [] payload = readPayload(in);
+					if(type == MIGRANTS)
+						forward(this, payload);
+					else if(type == BEST)
+						best(payload);
+				}
+			}catch(IOException | RuntimeException e) {
+				// the process disconnected, or sent an invalid message
+			}
+			ring.remove(this);
+			message("Process disconnected: " + socket.getRemoteSocketAddress() + " (" + ring.size() + " in the ring)");
+			close();
+		}
+
+		synchronized void write(byte type, byte [] payload) throws IOException {
+			out.writeByte(type);
+			out.writeInt(payload.length);
+			out.write(payload);
+			out.flush();
+		}
+
+		void close() {
+			try {
+				socket.close();
+			}catch(IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	/**
+	 * Runs a coordinator
+	 * @param args port, followed by key=value pairs (see Configuration)
+	 * @throws IOException
+	 */
+	public static void main(String [] args) throws IOException {
+		if(args.length == 0) {
+			System.out.println("Usage: Coordinator port [key=value ...]");
+			return;
+		}
+		String [] confArgs = new String[args.length - 1];
+		System.arraycopy(args, 1, confArgs, 0, confArgs.length);
+
+		Coordinator c = new Coordinator(Integer.parseInt(args[0]), Configuration.fromArgs(confArgs));
+		System.out.println("Coordinator listening on port " + c.getPort());
+		c.run();
+	}
+}
@@ -0,0 +1,191 @@
+package weka.classifiers.trees.m3gp.population;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.classifiers.trees.m3gp.client.Configuration;
+import weka.classifiers.trees.m3gp.metrics.GenerationListener;
+import weka.classifiers.trees.m3gp.tree.Tree;
+import weka.classifiers.trees.m3gp.util.Dataset;
+
+/**
+ * Island model: the population is split in several islands, each one
+ * evolved by its own thread with the same generations of Population.
+ * Every migration interval each island sends copies of its best trees to
+ * the next island (ring), which takes them at the end of its next
+ * generation. Between migrations the islands do not synchronize.
+ *
+ * With a coordinator (Configuration.getCoordinator), the ring continues on
+ * other processes: the last island sends its trees to the next process and
+ * the first island receives the trees of the previous one. At the end the
+ * best tree of this process is reported to the coordinator.
+ *
+ * Each island has its own stopping criteria; the time and evaluation
+ * budgets are shared, since they are measured globally.
+ * With a global GO affinity (PROBABILITY_ADAPTATION < 0) the islands
+ * share the same vector.
+ */
+public class IslandModel {
+	private Population [] islands;
+	private MigrationBuffer [] inbox;
+	private MigrationTransport [] outbox;
+
+	private Configuration conf;
+	private Dataset data;
+	private String [] target;
+
+	private Tree bestTree = null;
+
+	/**
+	 * Constructor
+	 * @param term
+	 * @param data
+	 * @param target
+	 * @param conf the population size and the threads are split by the islands
+	 * @throws IOException
+	 */
+	public IslandModel(String [] term, double [][] data, String [] target, Configuration conf) throws IOException {
+		this.conf = conf;
+		// the islands share one copy of the rows
+		this.data = new Dataset(data, conf.isSinglePrecision());
+		this.target = target;
+
+		int n = conf.getNumberOfIslands();
+		Configuration islandConf = conf
+				.withPopulationSize(Math.max(2, conf.getPopulationSize() / n))
+				.withNumberOfThreads(Math.max(1, conf.getNumberOfThreads() / n));
+
+		islands = new Population[n];
+		inbox = new MigrationBuffer[n];
+		for(int i = 0; i < n; i++) {
+			islands[i] = new Population(term, this.data, target, islandConf);
+			islands[i].setLogging(false);
+			inbox[i] = new MigrationBuffer();
+		}
+		outbox = new MigrationTransport[n];
+		for(int i = 0; i < n; i++) {
+			outbox[i] = inbox[(i + 1) % n];
+		}
+	}
+
+	/**
+	 * Trains the islands within a budget
+	 * @param timeBudget wall-clock budget in milliseconds, <= 0 for none
+	 * @param evaluationBudget maximum number of fitness evaluations, <= 0 for none
+	 * @return the best tree of all the islands
+	 */
+	public Tree train(long timeBudget, long evaluationBudget) throws IOException {
+		Configuration budget = islands[0].getConfiguration().withTimeBudget(timeBudget).withEvaluationBudget(evaluationBudget);
+		for(Population island : islands)
+			island.setStoppingCriteria(new StoppingCriteria(budget));
+		return train();
+	}
+
+	/**
+	 * Trains the islands, each on its own thread
+	 * @return the best tree of all the islands
+	 */
+	public Tree train() throws IOException {
+		RemoteMigration remote = null;
+		if(conf.getCoordinator().length() > 0) {
+			remote = new RemoteMigration(conf.getCoordinator(), inbox[0], islands[0].getConfiguration());
+			outbox[islands.length - 1] = remote;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(islands.length);
+		ArrayList<Future<Tree>> results = new ArrayList<Future<Tree>>();
+		for(int i = 0; i < islands.length; i++) {
+			results.add(pool.submit(new Island(i)));
+		}
+		pool.shutdown();
+
+		Tree [] best = new Tree[islands.length];
+		try {
+			for(int i = 0; i < best.length; i++) {
+				best[i] = results.get(i).get();
+			}
+		}catch(InterruptedException e) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while training the islands", e);
+		}catch(ExecutionException e) {
+			pool.shutdownNow();
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+
+		// the best tree of the islands, by train fitness
+		bestTree = best[0];
+		double bestFitness = PopulationFunctions.fitnessTrain(bestTree, data, target, null);
+		for(int i = 1; i < best.length; i++) {
+			double fitness = PopulationFunctions.fitnessTrain(best[i], data, target, null);
+			if(conf.isSmallerBetter() ? fitness < bestFitness : fitness > bestFitness) {
+				bestFitness = fitness;
+				bestTree = best[i];
+			}
+		}
+
+		if(remote != null) {
+			remote.reportBest(bestTree, bestFitness);
+			remote.close();
+		}
+		return bestTree;
+	}
+
+	/**
+	 * Adds a listener to all the islands
+	 * @param listener
+	 */
+	public void addGenerationListener(GenerationListener listener) {
+		for(Population island : islands)
+			island.addGenerationListener(listener);
+	}
+
+	/**
+	 * Returns the islands
+	 */
+	public Population[] getIslands() {
+		return islands;
+	}
+
+	/**
+	 * Returns the best tree of the train, or null if the islands
+	 * have not been trained yet
+	 */
+	public Tree getBestTree() {
+		return bestTree;
+	}
+
+	/**
+	 * Evolves one island, sending and receiving migrants
+	 */
+	private class Island implements Callable<Tree>{
+		private int index;
+
+		public Island(int index) {
+			this.index = index;
+		}
+
+		public Tree call() throws IOException {
+			Population island = islands[index];
+			MigrationTransport next = outbox[index];
+
+			island.start();
+			boolean improving = island.improving();
+			while(improving) {
+				improving = island.evolve();
+
+				if(conf.getMigrationSize() > 0 && island.getGeneration() % conf.getMigrationInterval() == 0)
+					next.send(island.emigrants(conf.getMigrationSize()));
+				island.immigrate(inbox[index].receive());
+			}
+			return island.finish();
+		}
+	}
+}
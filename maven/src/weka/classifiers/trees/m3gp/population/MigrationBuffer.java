@@ -0,0 +1,35 @@
+package weka.classifiers.trees.m3gp.population;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import weka.classifiers.trees.m3gp.tree.Tree;
+
+/**
+ * Inbox of the trees sent to an island. Any island can send trees
+ * and the owner takes them between generations; the queue is lock-free,
+ * so the islands never wait for each other
+ */
+public class MigrationBuffer implements MigrationTransport{
+	private ConcurrentLinkedQueue<Tree> trees = new ConcurrentLinkedQueue<Tree>();
+
+	/**
+	 * Sends the trees to the island that owns this buffer
+	 * @param migrants
+	 */
+	public void send(Tree [] migrants) {
+		for(Tree t : migrants)
+			trees.offer(t);
+	}
+
+	/**
+	 * Removes and returns all the trees received so far
+	 */
+	public Tree[] receive() {
+		ArrayList<Tree> received = new ArrayList<Tree>();
+		Tree t;
+		while((t = trees.poll()) != null)
+			received.add(t);
+		return received.toArray(new Tree[received.size()]);
+	}
+}
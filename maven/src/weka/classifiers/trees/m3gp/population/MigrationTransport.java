@@ -0,0 +1,16 @@
+package weka.classifiers.trees.m3gp.population;
+
+import weka.classifiers.trees.m3gp.tree.Tree;
+
+/**
+ * Destination of the trees that migrate from an island
+ */
+public interface MigrationTransport {
+
+	/**
+	 * Sends the trees to the destination. Migration is best effort:
+	 * trees that can not be delivered are lost
+	 * @param migrants
+	 */
+	public void send(Tree [] migrants);
+}
@@ -2,14 +2,21 @@ package weka.classifiers.trees.m3gp.population;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import weka.classifiers.trees.m3gp.client.ClientWekaSim;
+import weka.classifiers.trees.m3gp.client.Configuration;
 import weka.classifiers.trees.m3gp.client.Constants;
+import weka.classifiers.trees.m3gp.metrics.GenerationListener;
+import weka.classifiers.trees.m3gp.metrics.GenerationMetrics;
+import weka.classifiers.trees.m3gp.metrics.Metrics;
+import weka.classifiers.trees.m3gp.node.NodeStore;
 import weka.classifiers.trees.m3gp.tree.Tree;
 import weka.classifiers.trees.m3gp.tree.TreeGeneticOperatorHandler;
+import weka.classifiers.trees.m3gp.util.AliasTable;
 import weka.classifiers.trees.m3gp.util.Arrays;
+import weka.classifiers.trees.m3gp.util.Dataset;
 
 /**
  * 
@@ -17,18 +24,32 @@ import weka.classifiers.trees.m3gp.util.Arrays;
  *
  */
 public class Population{
-	// current and max generation
-	public static int generation = 0;
+	// current generation
+	private int generation = 0;
 
-	public static double[] goAffinity;
+	// global GO affinity, shared by all the populations (and islands); replaced, never changed in place
+	public static volatile double[] goAffinity;
+	// roulette of the global GO affinity, replaced with it by setGOAffinity
+	private static volatile AliasTable goAffinityTable;
 
 	// population
 	private Tree [] population;
 
 	//data, target column and fraction used for training
-	private double [][] data;
+	private Dataset data;
 	private String [] target;
 
+	//rows on which the trees of the current generation are evaluated: data, or a subsample of it
+	private Subsample subsample = null;
+	private Dataset fitnessData;
+	private String [] fitnessTarget;
+
+	//keeps the equal subtrees of the current generation and its descendents once
+	private NodeStore store = new NodeStore();
+
+	//threshold of the tournaments of the last generation, the descendents below it were raced against it
+	private double raceBound = Double.NEGATIVE_INFINITY;
+
 	//fraction of the population used for tournament and elitism
 	private int tournamentSize = 2;
 	private int elitismSize = 1;
@@ -42,6 +63,21 @@ public class Population{
 	//from the trees with the best train rmse over the generations, this is the one with the lower test rmse
 	private Tree bestTree = null;
 
+	//parameters of the train
+	private Configuration conf;
+
+	//decides when the train stops
+	private StoppingCriteria stoppingCriteria;
+
+	//false when the population is an island, so the islands do not write to the same file
+	private boolean logging = true;
+
+	//threads of the reproduction, created on the first generation
+	private ForkJoinPool pool = null;
+
+	//receive the metrics of each generation
+	private ArrayList<GenerationListener> listeners = new ArrayList<GenerationListener>();
+
 	//public static double[] goAffinity;
 
 	/**
@@ -58,21 +94,58 @@ public class Population{
 	 * @throws IOException
 	 */
 	public Population(String [] term, double [][] data, String [] target) throws IOException{
+		this(term, data, target, Configuration.DEFAULT);
+	}
+
+	/**
+	 * Construtor
+	 * @param term
+	 * @param data
+	 * @param target
+	 * @param conf parameters of the train
+	 * @throws IOException
+	 */
+	public Population(String [] term, double [][] data, String [] target, Configuration conf) throws IOException{
+		this(term, new Dataset(data, conf.isSinglePrecision()), target, conf);
+	}
+
+	/**
+	 * Constructor, for populations that share the rows (e.g. the islands)
+	 * @param term
+	 * @param data rows in the precision of conf
+	 * @param target
+	 * @param conf parameters of the train
+	 * @throws IOException
+	 */
+	Population(String [] term, Dataset data, String [] target, Configuration conf) throws IOException{
+		this.conf = conf;
 		message("Creating forest...");
 		
 
-		tournamentSize = (int) (Constants.TOURNAMENT_FRACTION * Constants.POPULATION_SIZE);
-		elitismSize = (int) (Constants.ELITISM_FRACTION * Constants.POPULATION_SIZE);
+		// a tournament of one always picks the worst tree, small populations (e.g. islands) need at least two
+		tournamentSize = Math.max(2, (int) (conf.getTournamentFraction() * conf.getPopulationSize()));
+		elitismSize = (int) (conf.getElitismFraction() * conf.getPopulationSize());
+		stoppingCriteria = new StoppingCriteria(conf);
 
 		this.data = data;
 		this.target = target;
+		fitnessData = data;
+		fitnessTarget = target;
+		if(conf.getSubsampleSize() > 0 && conf.getSubsampleSize() < conf.trainSize(data.length()))
+			subsample = new Subsample(data, target, conf.getSubsampleSize(), conf);
 
 		this.terminals = term;
 
-		population = new Tree[Constants.POPULATION_SIZE];
+		if(conf.isJmxMetrics())
+			addGenerationListener(Metrics.getInstance());
 
-		for(int i = 0; i < Constants.POPULATION_SIZE; i++){
-			population[i] = new Tree(term, 0 , maxDepth);
+		population = new Tree[conf.getPopulationSize()];
+
+		for(int i = 0; i < population.length; i++){
+			// simplified like the descendents, so they can be compared with them
+			population[i] = new Tree(term, 0 , maxDepth, conf);
+			population[i].clean();
+			population[i].intern(store);
 		}
 		
 		resetGOAffinity();
@@ -80,12 +153,12 @@ public class Population{
 
 	private void resetGOAffinity() {
 		
-		goAffinity = new double[Constants.NUMBER_OF_GENETIC_OPERATORS];
-		for(int i = 0; i < goAffinity.length; i++) {
-			goAffinity[i] = 1.0/goAffinity.length;
-			//goAffinity[i] = Math.random();
+		double [] goa = new double[Constants.NUMBER_OF_GENETIC_OPERATORS];
+		for(int i = 0; i < goa.length; i++) {
+			goa[i] = 1.0/goa.length;
+			//goa[i] = Math.random();
 		}
-		goAffinity = Arrays.normalize(goAffinity);
+		setGOAffinity(Arrays.normalize(goa));
 		
 		
 		for(int i = 0; i < population.length; i++) {
@@ -129,17 +202,34 @@ public class Population{
 	}
 
 
+	/**
+	 * Trains the classifier within a budget. The train stops as soon as the
+	 * wall-clock or the fitness evaluation budget is spent, even in the middle
+	 * of a generation, and the best tree found so far is returned
+	 * @param timeBudget wall-clock budget in milliseconds, <= 0 for none
+	 * @param evaluationBudget maximum number of fitness evaluations, <= 0 for none
+	 * @return the best tree of the train
+	 */
+	public Tree train(long timeBudget, long evaluationBudget) throws IOException {
+		stoppingCriteria = new StoppingCriteria(conf.withTimeBudget(timeBudget).withEvaluationBudget(evaluationBudget));
+		return train();
+	}
+
 	/**
 	 * Trains the classifier
+	 * @return the best tree of the train
 	 */
-	public ArrayList<Double>[] train() throws IOException {
+	public Tree train() throws IOException {
 		message("Starting train...");
 
-		generation = 0;
-		while(improving()){
+		start();
+		boolean improving = improving();
+		while(improving){
 			//resetGOAffinity();
-			ClientWekaSim.datafile.write("        \"MedianGOA\":\"" + Arrays.arrayToString(medianGOA())  + "\"\n");
-			ClientWekaSim.datafile.write("        \"Individuals\":{\n");
+			if(logging()) {
+				write("        \"MedianGOA\":\"" + Arrays.arrayToString(medianGOA())  + "\"\n");
+				write("        \"Individuals\":{\n");
+			}
 
 			if(generation%5 == 0)
 				message("Generation " + generation + "...");
@@ -147,114 +237,284 @@ public class Population{
 
 			generation ++;
 
-			ClientWekaSim.datafile.write("        }\n");
-			if(improving())
-				ClientWekaSim.datafile.write(",\n");
+			write("        }\n");
+			improving = improving();
+			if(improving)
+				write(",\n");
 		}
-		bestTree = prun(bestTree, data, target);
+		return finish();
+	}
 
-		return null;
+	/**
+	 * Prepares the population to be evolved
+	 */
+	void start() {
+		generation = 0;
+		stoppingCriteria.start();
+	}
+
+	/**
+	 * Evolves the population by one generation
+	 * @return true if the train should continue
+	 */
+	boolean evolve() throws IOException {
+		nextGeneration();
+		generation++;
+		return improving();
+	}
+
+	/**
+	 * Ends the train, pruning the best tree unless the budget was spent,
+	 * and releases the projection buffers of this thread (the threads of
+	 * the pool end with it)
+	 * @return the best tree of the train
+	 */
+	Tree finish() {
+		message("Train stopped at generation " + generation + ": " + stoppingCriteria.getReason());
+		if(pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		if(bestTree == null) {
+			// no generation ran, the best is the best initial tree
+			bestTree = population[0];
+			for(int i = 1; i < population.length; i++) {
+				if(PopulationFunctions.betterTrain(population[i], bestTree, data, target, stoppingCriteria.getEvaluationCounter()))
+					bestTree = population[i];
+			}
+		}
+		if(!stoppingCriteria.budgetSpent())
+			bestTree = prun(bestTree, data, target);
+		Tree.releaseBuffers();
+		return bestTree;
+	}
+
+	/**
+	 * Returns copies of the best trees of the last generation: the pruned
+	 * best tree and the elite, at most n. The copies share no state with
+	 * this population, so they can be sent to other islands
+	 * @param n
+	 */
+	Tree[] emigrants(int n) {
+		n = Math.min(n, 1 + elitismSize);
+		Tree [] emigrants = new Tree[n];
+		for(int i = 0; i < n; i++) {
+			emigrants[i] = new Tree(population[i].cloneDimensions(), population[i]);
+		}
+		return emigrants;
+	}
+
+	/**
+	 * Replaces the last descendents of the current generation by the
+	 * immigrants, keeping the pruned best tree and the elite. Like the
+	 * descendents, the immigrants are simplified and interned on the store
+	 * of the generation, so they can be compared with the residents
+	 * @param immigrants
+	 */
+	void immigrate(Tree [] immigrants) {
+		int n = Math.min(immigrants.length, population.length - 1 - elitismSize);
+		for(int i = 0; i < n; i++) {
+			immigrants[i].clean();
+			immigrants[i].intern(store);
+			population[population.length - 1 - i] = immigrants[i];
+		}
+	}
+
+	/**
+	 * Disables the results file, used by the islands
+	 * @param logging
+	 */
+	void setLogging(boolean logging) {
+		this.logging = logging;
+	}
+
+	/**
+	 * Returns the current generation
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Replaces the global GO affinity and its roulette
+	 * @param goa new vector, not changed after this call
+	 */
+	public static void setGOAffinity(double [] goa) {
+		goAffinityTable = new AliasTable(goa);
+		goAffinity = goa;
+	}
+
+	/**
+	 * Returns the roulette of the global GO affinity
+	 */
+	public static AliasTable getGOAffinityTable() {
+		return goAffinityTable;
 	}
 
 	/**
 	 * Returns true if the classifier is still improving
 	 */
 	public boolean improving() {
-		return generation < Constants.NUMBER_OF_GENERATIONS;
+		return !stoppingCriteria.met(generation);
 	}	
 
-	// train is perfect
-	boolean done = false;
 	/**
-	 * Evolves the classifier by one generation
+	 * Returns the parameters of the train
 	 */
-	public void nextGeneration() throws IOException{
-		if (done) {
+	public Configuration getConfiguration() {
+		return conf;
+	}
 
-			double train = bestTree.getTrainAccuracy(data, target);
-			double test = bestTree.getTestAccuracy(data, target);
-			message(generation + ": " + train + " // " + test + "/// (done)");
-			ClientWekaSim.datafile.write(bestTree.toJSON(data, target)+"\n");
-			return;
-		}
+	/**
+	 * Replaces the criteria used to stop the train
+	 * @param stoppingCriteria
+	 */
+	public void setStoppingCriteria(StoppingCriteria stoppingCriteria) {
+		this.stoppingCriteria = stoppingCriteria;
+	}
+
+	/**
+	 * Adds a listener that receives the metrics of each generation
+	 * @param listener
+	 */
+	public void addGenerationListener(GenerationListener listener) {
+		listeners.add(listener);
+	}
 
+	public void removeGenerationListener(GenerationListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Evolves the classifier by one generation
+	 */
+	public void nextGeneration() throws IOException{
 		Tree [] nextGen = new Tree [population.length];
 		double [] fitnesses = new double[population.length];
 
+		long [] counters = Metrics.counters();
+		long selectionTime = Metrics.SELECTION_TIME.sum();
 
 		//resetGOAffinity();
 
+		// each generation is evaluated on the next subsample; the best tree on all the rows
+		if(subsample != null) {
+			subsample.next();
+			fitnessData = subsample.getData();
+			fitnessTarget = subsample.getTarget();
+			raceBound = Double.NEGATIVE_INFINITY;
+		}
 
 		// Obtencao de fitness
-		long timeFitness = System.currentTimeMillis();
+		// (once the budget is spent, the remaining trees get the worst fitness)
+		long timeFitness = System.nanoTime();
 		for (int i = 0; i < population.length; i++) {
-			fitnesses[i] = PopulationFunctions.fitnessTrain(population[i],data, target);
+			if(stoppingCriteria.budgetSpent())
+				fitnesses[i] = conf.isSmallerBetter() ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+			else
+				fitnesses[i] = PopulationFunctions.fitnessTrain(population[i], fitnessData, fitnessTarget, raceBound, stoppingCriteria.getEvaluationCounter());
 		}
-		timeFitness = System.currentTimeMillis()-timeFitness;
+		timeFitness = System.nanoTime()-timeFitness;
 
 
-		Arrays.mergeSortBy(population, fitnesses);
+		long timeSort = System.nanoTime();
+		Selection selection = new Selection(population, fitnesses, conf.isSmallerBetter(), tournamentSize);
+		timeSort = System.nanoTime()-timeSort;
 
-		long timeFile = System.currentTimeMillis();
-		timeFile = System.currentTimeMillis()-timeFile;
 		//ClientWekaSim.datafile.addGen(nextGen);
 
 		//Pruning
-		nextGen[0] = prun(population[population.length-1],data,target);
+		long timePruning = System.nanoTime();
+		if(stoppingCriteria.budgetSpent())
+			nextGen[0] = selection.get(0);
+		else
+			nextGen[0] = prun(selection.get(0),data,target);
+		timePruning = System.nanoTime()-timePruning;
 
 		// Elitismo 
 		for(int i = 1; i < 1+elitismSize; i++ ){
-			nextGen[i] = population[population.length-1-i];
+			nextGen[i] = selection.get(i);
 		}
 
 
 		//Selecao e reproducao
-		int n_threads = Constants.NUMBER_OF_THREADS;
-		Tree[][] descendents = new Tree[n_threads][nextGen.length/n_threads + 1];
-		ExecutorService pool = Executors.newFixedThreadPool(n_threads);	
-		
-		for (int i = 0; i < n_threads; i++) {
-			pool.submit(new BirthGiver(descendents[i],population));
+		long timeReproduction = System.nanoTime();
+		// the descendents that can not reach the threshold of the tournaments
+		// are only evaluated until that is known, and keep that upper bound
+		// on the ranking of the next generation
+		raceBound = selection.getThreshold();
+		BirthGiver births = new BirthGiver(nextGen, selection, raceBound, 1+elitismSize, nextGen.length);
+		if(conf.getNumberOfThreads() == 1) {
+			births.compute();
+		}else {
+			if(pool == null)
+				pool = new ForkJoinPool(conf.getNumberOfThreads());
+			pool.invoke(births);
 		}
-		pool.shutdown();		
-		while(!pool.isTerminated());
-	
-		for(int i = 1+elitismSize; i < nextGen.length;){
-			for(int t = 0; t < n_threads; t++) {
-				for(int ind = 0; ind < descendents[t].length && i < nextGen.length; ind++) {
-					nextGen[i] = descendents[t][ind];
-					i++;
-				}
-			}
+
+		// If the budget was spent during the reproduction, the missing
+		// descendents are replaced by the current trees
+		for(int i = 0; i < nextGen.length; i++) {
+			if(nextGen[i] == null)
+				nextGen[i] = population[i];
+		}
+
+		// the equal subtrees of the next generation are kept once
+		store = new NodeStore();
+		for(Tree t : nextGen) {
+			t.intern(store);
 		}
+		timeReproduction = System.nanoTime()-timeReproduction;
 
 
-		ClientWekaSim.datafile.write(population[population.length-1].toJSON(data, target)+"\n");
+		long timeFile = System.nanoTime();
+		if(logging())
+			write(selection.get(0).toJSON(data, target)+"\n");
 
+		double bestFitness = selection.getFitness(0);
 		if(elitismSize == 0) {
-			setBestToLast(population);
+			bestTree = bestTrainAccuracy(population);
+		}else if(subsample == null) {
+			bestTree = selection.get(0);
+		}else {
+			// the elite was ranked on the subsample, the best of it is the one with the best fitness on all the rows
+			// (after the reproduction, that used the clusters of these trees on the subsample)
+			bestTree = nextGen[0];
+			bestFitness = PopulationFunctions.fitnessTrain(bestTree, data, target, stoppingCriteria.getEvaluationCounter());
+			for(int i = 1; i < 1+elitismSize && !stoppingCriteria.budgetSpent(); i++) {
+				double fitness = PopulationFunctions.fitnessTrain(nextGen[i], data, target, stoppingCriteria.getEvaluationCounter());
+				if(conf.isSmallerBetter() ? fitness < bestFitness : fitness > bestFitness) {
+					bestTree = nextGen[i];
+					bestFitness = fitness;
+				}
+			}
 		}
 
-		bestTree = population[population.length-1];
-
 		double train = bestTree.getTrainAccuracy(data, target);
 		double test = bestTree.getTestAccuracy(data, target);
 
 		message(generation + ": " + train + " // " + test + "///" + Arrays.arrayToString(bestTree.getGOA()));
+		timeFile = System.nanoTime()-timeFile;
 
 		population = nextGen;
 
-		if(train == 1) {
-			bestTree = prun(bestTree, data, target);
-			done = true;
+		stoppingCriteria.update(bestFitness, train);
+
+		if(!listeners.isEmpty()) {
+			selectionTime = Metrics.SELECTION_TIME.sum() - selectionTime + timeSort;
+			GenerationMetrics metrics = new GenerationMetrics(generation,
+					new long[] {timeFitness, selectionTime, timeReproduction, timePruning, timeFile},
+					counters, Metrics.counters(), bestFitness);
+			for(GenerationListener listener : listeners)
+				listener.generationFinished(metrics);
 		}
 	}
 
 	/**
-	 * Sets the tree with the higher fitness to the index 0 of the population
+	 * Returns the tree with the higher train accuracy
 	 * @param pop population
 	 */
-	private void setBestToLast(Tree[] pop) {
+	private Tree bestTrainAccuracy(Tree[] pop) {
 		int bestIndex = 0;
 		double bestRMSE = pop[0].getTrainAccuracy(data, target);
 		double candidateRMSE;
@@ -265,9 +525,15 @@ public class Population{
 				bestIndex = i;
 			}
 		}
-		Tree dup = pop[pop.length-1];
-		pop[pop.length-1] = pop[bestIndex];
-		pop[bestIndex] = dup;
+		return pop[bestIndex];
+	}
+
+	/**
+	 * Returns the best tree found during the train, or null if the
+	 * classifier has not been trained yet
+	 */
+	public Tree getBestTree() {
+		return bestTree;
 	}
 
 	/**
@@ -283,11 +549,29 @@ public class Population{
 	 * @param s
 	 */
 	private void message(String s){
-		if(Constants.MESSAGES)
+		if(conf.isMessages())
 			System.out.println(s);
 	}
 
 
+	/**
+	 * Writes s to the results file of the simulation client, if there is one
+	 * (e.g., when the classifier is running inside weka or as an island there is no file)
+	 * @param s
+	 * @throws IOException
+	 */
+	private void write(String s) throws IOException{
+		if(logging())
+			ClientWekaSim.datafile.write(s);
+	}
+
+	/**
+	 * Returns true if there is a results file to write to
+	 */
+	private boolean logging() {
+		return logging && ClientWekaSim.datafile != null;
+	}
+
 	/**
 	 * Returns the best tree of the train in it's String format
 	 */
@@ -299,30 +583,51 @@ public class Population{
 	}
 
 
-	private Tree prun(Tree tree, double[][] data, String[] target) {
-		return PopulationFunctions.prun(tree,data,target);
+	private Tree prun(Tree tree, Dataset data, String[] target) {
+		return PopulationFunctions.prun(tree,data,target,stoppingCriteria.getEvaluationCounter());
 	}
 
 
 
 
-	private class BirthGiver implements Runnable{
-		Tree[] descendents;
-		Tree[] population;
-
-		public BirthGiver(Tree[] descendents, Tree[] population) {
-			this.descendents = descendents;
-			this.population = population;
+	/**
+	 * Fills nextGen[from..to[ with descendents. Ranges bigger than
+	 * MAX_BIRTHS are split in halves, so the idle threads of the pool steal
+	 * the halves of the busy ones: the threads that get the cheap
+	 * descendents (small trees, few dimensions) end up producing more of them
+	 */
+	private class BirthGiver extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+
+		// a genetic operation produces up to 3 descendents
+		private static final int MAX_BIRTHS = 3;
+
+		Tree[] nextGen;
+		Selection selection;
+		double bound;
+		int from, to;
+
+		public BirthGiver(Tree[] nextGen, Selection selection, double bound, int from, int to) {
+			this.nextGen = nextGen;
+			this.selection = selection;
+			this.bound = bound;
+			this.from = from;
+			this.to = to;
 		}
 
-		public void run() {
-			for(int i = 0; i < descendents.length; i++) {
-				Tree [] cross = TreeGeneticOperatorHandler.geneticOperation(population, tournamentSize, terminals, data, target);
-				for(int k = 0; k < cross.length && k+i < descendents.length; k++){
-					descendents[i+k] = cross[k];
+		protected void compute() {
+			if(to - from > MAX_BIRTHS) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BirthGiver(nextGen, selection, bound, from, middle),
+						new BirthGiver(nextGen, selection, bound, middle, to));
+				return;
+			}
+			for(int i = from; i < to && !stoppingCriteria.budgetSpent(); ) {
+				Tree [] cross = TreeGeneticOperatorHandler.geneticOperation(selection, terminals, fitnessData, fitnessTarget, conf, bound, store, stoppingCriteria.getEvaluationCounter());
+				for(int k = 0; k < cross.length && i < to; k++, i++){
+					nextGen[i] = cross[k];
 				}
-				i+=cross.length-1;
 			}
 		}
 	}
-}
\ No newline at end of file
+}
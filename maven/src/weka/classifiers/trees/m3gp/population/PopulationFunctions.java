@@ -1,24 +1,31 @@
 package weka.classifiers.trees.m3gp.population;
 
-import weka.classifiers.trees.m3gp.client.Constants;
+import java.util.concurrent.atomic.LongAdder;
+
+import weka.classifiers.trees.m3gp.client.Configuration;
+import weka.classifiers.trees.m3gp.metrics.Metrics;
 import weka.classifiers.trees.m3gp.tree.Tree;
 import weka.classifiers.trees.m3gp.tree.TreePruningHandler;
+import weka.classifiers.trees.m3gp.util.Dataset;
 import weka.classifiers.trees.m3gp.util.Mat;
 
 public class PopulationFunctions {
-	/*
-	 * -1 : Accuracy
-	 * 1 : Mean distance to centroid
-	 * -2 : accuracy - mean distance to centroid as a very small value
-	 * -3 : accuracy - sigmoid(#dimensions)/trainset_size
-	 * -4 : sigmoid(rms dist between clusters) - sigmoin(mean distance of points to the centroids)
-	 * -5 : accuracy - sigmoid(#nodes)/trainset_size
-	 * -6 : sigmoid(rms mhlnb dist between clusters) - sigmoin(mean distance of points to the centroids)
+	/**
+	 * Returns the fitness of t on the train rows of data. The fitness
+	 * is calculated once per tree, and only those calculations count
+	 * as fitness evaluations, on evaluations and on the exported metrics
+	 * @param t
+	 * @param data
+	 * @param target
+	 * @param evaluations fitness evaluations of the train (see StoppingCriteria), may be null
 	 */
-	static int fitnessType = -5;
-	public static double fitnessTrain(Tree t, double [][] data, String [] target) {
-		double d = 0,acc,dist_ce,d_size, dist_cl;
-		switch (fitnessType){		
+	public static double fitnessTrain(Tree t, Dataset data, String [] target, LongAdder evaluations) {
+		if(t.hasFitness(data))
+			return t.getFitness();
+		count(evaluations);
+		Configuration conf = t.getConfiguration();
+		double d = 0,acc,dist_ce, dist_cl;
+		switch (conf.getFitnessType()){		
 		case -4:
 			dist_cl = Mat.sigmod(t.getMeanDistanceBetweenCentroids(data, target)/t.getDimensions().size());
 			dist_ce = Mat.sigmod(t.getTrainRootMeanSquaredDistanceToCentroid(data, target)/t.getDimensions().size()); 
@@ -26,9 +33,7 @@ public class PopulationFunctions {
 			break;
 		case -5:
 			acc = t.getTrainAccuracy(data, target); 
-			d_size = 1.0*t.getSize();
-			d_size = Mat.sigmod(Math.sqrt(d_size/1000.0));
-			d = acc - d_size/(data.length*Constants.TRAIN_FRACTION);
+			d = acc - sizePenalty(t, data);
 			break;
 		case -6:
 			dist_cl = Mat.sigmod(t.getMeanDistanceBetweenCentroids(data, target)/Math.sqrt(t.getDimensions().size()));
@@ -41,48 +46,79 @@ public class PopulationFunctions {
 			d = dist_cl-dist_ce;
 			break;
 		}
+		t.setFitness(data, d);
 		return d;		
 	}
 
 	/**
-	 * Picks as many trees from population as the size of the tournament
-	 * and return the one with the lower fitness, assuming the population
-	 * is already sorted
-	 * @param population Tree population
-	 * @return The winner tree
+	 * Like fitnessTrain, but with racing: the evaluation stops as soon as
+	 * the fitness can not reach bound. Only the accuracy of fitness -5 is
+	 * raced, the other fitness types are always evaluated on all the rows
+	 * @param t
+	 * @param data
+	 * @param target
+	 * @param bound
+	 * @param evaluations fitness evaluations of the train, may be null
+	 * @return the fitness if it reaches bound, otherwise an upper bound of it, smaller than bound
 	 */
-	static boolean smallerIsBetter = fitnessType > 0;
-	public static Tree tournament(Tree [] population, int tournamentSize) {
-		int pick = Mat.random(tournamentSize);
-		for(int i = 1; i < tournamentSize; i ++){
-			if(smallerIsBetter)
-				pick = Math.min(pick, Mat.random(population.length));
-			else
-				pick = Math.max(pick, Mat.random(population.length));
+	public static double fitnessTrain(Tree t, Dataset data, String [] target, double bound, LongAdder evaluations) {
+		if(t.hasFitness(data))
+			return t.getFitness();
+		if(t.getConfiguration().getFitnessType() != -5)
+			return fitnessTrain(t, data, target, evaluations);
+		if(t.hasFitnessBound(data) && t.getFitness() < bound)
+			return t.getFitness();
+
+		count(evaluations);
+		double penalty = sizePenalty(t, data);
+		double acc = t.getTrainAccuracy(data, target, bound + penalty);
+		double d = acc - penalty;
+		if(acc < bound + penalty) {
+			d = Math.min(d, Math.nextDown(bound));
+			t.setFitnessBound(data, d);
+		}else {
+			t.setFitness(data, d);
 		}
-		return population[pick];
+		return d;
+	}
+
+	/**
+	 * Counts a fitness evaluation
+	 */
+	private static void count(LongAdder evaluations) {
+		Metrics.FITNESS_EVALUATIONS.increment();
+		if(evaluations != null)
+			evaluations.increment();
 	}
 
+	/**
+	 * Returns the penalty of the size of t used by fitness -5
+	 */
+	private static double sizePenalty(Tree t, Dataset data) {
+		double d_size = 1.0*t.getSize();
+		d_size = Mat.sigmod(Math.sqrt(d_size/1000.0));
+		return d_size/(data.length()*t.getConfiguration().getTrainFraction());
+	}
 
-	public static Tree prun(Tree tree, double[][] data, String[] target) {
+	public static Tree prun(Tree tree, Dataset data, String[] target, LongAdder evaluations) {
 		double [] goa = tree.getGOA();
 		
-		Tree t = TreePruningHandler.prun(tree, data, target);
-		t = TreePruningHandler.prun(t, data, target);
+		Tree t = TreePruningHandler.prun(tree, data, target, evaluations);
+		t = TreePruningHandler.prun(t, data, target, evaluations);
 		
 		t.setGOA(goa);
 		return t;
 	}
 
-	public static boolean betterTrain(Tree t1, Tree t2, double[][] data, String[] target) {
-		double t1_fit = fitnessTrain(t1,data,target);
-		double t2_fit = fitnessTrain(t2,data,target);
-		return smallerIsBetter? t1_fit < t2_fit : t1_fit > t2_fit; 
+	public static boolean betterTrain(Tree t1, Tree t2, Dataset data, String[] target, LongAdder evaluations) {
+		double t1_fit = fitnessTrain(t1,data,target,evaluations);
+		double t2_fit = fitnessTrain(t2,data,target,evaluations);
+		return t1.getConfiguration().isSmallerBetter()? t1_fit < t2_fit : t1_fit > t2_fit; 
 	}
 	
-	public static boolean betterOrEqualTrain(Tree t1, Tree t2, double[][] data, String[] target) {
-		double t1_fit = fitnessTrain(t1,data,target);
-		double t2_fit = fitnessTrain(t2,data,target);
-		return smallerIsBetter? t1_fit <= t2_fit : t1_fit >= t2_fit; 
+	public static boolean betterOrEqualTrain(Tree t1, Tree t2, Dataset data, String[] target, LongAdder evaluations) {
+		double t1_fit = fitnessTrain(t1,data,target,evaluations);
+		double t2_fit = fitnessTrain(t2,data,target,evaluations);
+		return t1.getConfiguration().isSmallerBetter()? t1_fit <= t2_fit : t1_fit >= t2_fit; 
 	}
 }
\ No newline at end of file
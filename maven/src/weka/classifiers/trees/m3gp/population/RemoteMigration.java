@@ -0,0 +1,108 @@
+package weka.classifiers.trees.m3gp.population;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+import weka.classifiers.trees.m3gp.client.Configuration;
+import weka.classifiers.trees.m3gp.tree.Tree;
+import weka.classifiers.trees.m3gp.tree.TreeCodec;
+
+/**
+ * Connection of a process to the Coordinator. The trees sent are forwarded
+ * by the coordinator to the next process of the ring, and the trees sent by
+ * the previous process are put on the inbox of the first local island.
+ */
+public class RemoteMigration implements MigrationTransport{
+	private Socket socket;
+	private DataOutputStream out;
+	private volatile boolean connected = true;
+
+	/**
+	 * Connects to the coordinator
+	 * @param address host:port of the coordinator
+	 * @param inbox buffer that receives the trees of the previous process
+	 * @param conf configuration of the received trees
+	 * @throws IOException
+	 */
+	public RemoteMigration(String address, final MigrationBuffer inbox, final Configuration conf) throws IOException {
+		int colon = address.lastIndexOf(':');
+		if(colon < 0)
+			throw new IllegalArgumentException("The coordinator must be host:port, not " + address);
+		socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon+1)));
+		socket.setTcpNoDelay(true);
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while(true) {
+						byte type = in.readByte();
+						byte [] payload = Coordinator.readPayload(in);
+						if(type == Coordinator.MIGRANTS)
+							inbox.send(TreeCodec.fromBytes(payload, conf));
+					}
+				}catch(IOException | RuntimeException e) {
+					// the connection was closed, or the message was invalid
+					connected = false;
+					try {
+						socket.close();
+					}catch(IOException e2) {
+						// already closed
+					}
+				}
+			}
+		}, "m3gp-migration-" + address);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Sends the trees to the next process, through the coordinator
+	 */
+	public void send(Tree [] migrants) {
+		if(!connected || migrants.length == 0)
+			return;
+		try {
+			write(Coordinator.MIGRANTS, TreeCodec.toBytes(migrants));
+		}catch(IOException e) {
+			connected = false;
+			System.err.println("Migration to the coordinator failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Sends the best tree of this process to the coordinator
+	 * @param best
+	 * @param fitness train fitness of the tree
+	 * @throws IOException
+	 */
+	public void reportBest(Tree best, double fitness) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream payload = new DataOutputStream(bytes);
+		payload.writeDouble(fitness);
+		payload.write(TreeCodec.toBytes(new Tree[] {best}));
+		payload.flush();
+		write(Coordinator.BEST, bytes.toByteArray());
+	}
+
+	private synchronized void write(byte type, byte [] payload) throws IOException {
+		out.writeByte(type);
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.flush();
+	}
+
+	/**
+	 * Closes the connection
+	 */
+	public void close() throws IOException {
+		connected = false;
+		socket.close();
+	}
+}
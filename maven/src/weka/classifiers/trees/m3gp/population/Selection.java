@@ -0,0 +1,108 @@
+package weka.classifiers.trees.m3gp.population;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import weka.classifiers.trees.m3gp.node.Node;
+import weka.classifiers.trees.m3gp.tree.Tree;
+import weka.classifiers.trees.m3gp.util.Arrays;
+
+/**
+ * Ranking of the trees of a generation, used by the tournaments, the
+ * elitism and the pruning. The fitnesses are ranked once per generation,
+ * without sorting the population itself.
+ *
+ * The winner of a tournament of k trees picked at random is the one with
+ * the lowest rank, so instead of picking them its rank is drawn directly
+ * from the distribution of the minimum of k uniform ranks:
+ * P(min >= r) = ((n-r)/n)^k, i.e. r = floor(n * (1 - U^(1/k))).
+ * Each tournament is then O(1), whatever its size, and allocates nothing.
+ */
+public class Selection {
+	private Tree [] population;
+	private double [] fitnesses;
+
+	// order[r] is the index of the tree with rank r, 0 being the best
+	private int [] order;
+
+	private double exponent;
+
+	// the trees by their dimensions, to find the descendents equal to one of them
+	private HashMap<List<Node>, Tree> trees = new HashMap<List<Node>, Tree>();
+
+	/**
+	 * Ranks the population
+	 * @param population
+	 * @param fitnesses fitness of each tree of the population
+	 * @param smallerIsBetter
+	 * @param tournamentSize
+	 */
+	public Selection(Tree [] population, double [] fitnesses, boolean smallerIsBetter, int tournamentSize) {
+		this.population = population;
+		this.fitnesses = fitnesses;
+		exponent = 1.0 / tournamentSize;
+
+		int n = population.length;
+		int [] ascending = Arrays.sortedIndexes(fitnesses);
+		if(smallerIsBetter) {
+			order = ascending;
+		}else {
+			order = new int[n];
+			for(int r = 0; r < n; r++)
+				order[r] = ascending[n-1-r];
+		}
+
+		for(Tree t : population)
+			trees.putIfAbsent(t.getDimensions(), t);
+	}
+
+	/**
+	 * Returns a tree of the population with the same dimensions as t,
+	 * null if there is none
+	 * @param t
+	 */
+	public Tree find(Tree t) {
+		return trees.get(t.getDimensions());
+	}
+
+	/**
+	 * Returns the winner of a tournament
+	 */
+	public Tree tournament() {
+		int n = order.length;
+		int r = (int) (n * (1 - Math.pow(ThreadLocalRandom.current().nextDouble(), exponent)));
+		return get(Math.min(r, n-1));
+	}
+
+	/**
+	 * Returns the tree with rank r, 0 being the best
+	 * @param r
+	 */
+	public Tree get(int r) {
+		return population[order[r]];
+	}
+
+	/**
+	 * Returns the fitness of the tree with rank r
+	 * @param r
+	 */
+	public double getFitness(int r) {
+		return fitnesses[order[r]];
+	}
+
+	/**
+	 * Returns the fitness of the rank r from which a tree wins a tournament
+	 * with probability 1/n, i.e. ((n-r)/n)^k = 1/n. The descendents below
+	 * it are hardly ever selected, so they can be raced against it
+	 */
+	public double getThreshold() {
+		int n = order.length;
+		int r = (int) (n * (1 - Math.pow(n, -exponent)));
+		return getFitness(Math.max(0, Math.min(r, n-1)));
+	}
+
+	public int size() {
+		return order.length;
+	}
+}
@@ -0,0 +1,329 @@
+package weka.classifiers.trees.m3gp.population;
+
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import weka.classifiers.trees.m3gp.client.Configuration;
+import weka.classifiers.trees.m3gp.client.Constants;
+import weka.classifiers.trees.m3gp.metrics.GenerationListener;
+import weka.classifiers.trees.m3gp.metrics.GenerationMetrics;
+import weka.classifiers.trees.m3gp.metrics.Metrics;
+import weka.classifiers.trees.m3gp.node.NodeStore;
+import weka.classifiers.trees.m3gp.tree.Tree;
+import weka.classifiers.trees.m3gp.tree.TreeGeneticOperatorHandler;
+import weka.classifiers.trees.m3gp.util.Arrays;
+import weka.classifiers.trees.m3gp.util.Dataset;
+
+/**
+ * Steady-state evolution: each thread repeatedly selects parents by
+ * tournament, breeds and evaluates the descendents, and replaces the loser
+ * of an inverse tournament if the descendent is not worse than it.
+ * There are no barriers between generations, so the threads never wait
+ * for the slower evaluations of the others.
+ *
+ * A generation is counted for each population size replacements tried;
+ * at the end of each one the stopping criteria and the listeners are
+ * updated. All the work of a generation is reported as reproduction time.
+ */
+public class SteadyStatePopulation {
+	// tree and fitness of a slot of the population, replaced as a whole
+	private static class Individual{
+		final Tree tree;
+		final double fitness;
+
+		Individual(Tree tree, double fitness) {
+			this.tree = tree;
+			this.fitness = fitness;
+		}
+	}
+
+	private AtomicReferenceArray<Individual> population;
+
+	private Dataset data;
+	private String [] target;
+	private String [] terminals;
+
+	private Configuration conf;
+	private int tournamentSize;
+
+	//initial max depth
+	private int maxDepth = 6;
+
+	private StoppingCriteria stoppingCriteria;
+	private ArrayList<GenerationListener> listeners = new ArrayList<GenerationListener>();
+
+	// replacements tried since the start of the train
+	private AtomicLong births = new AtomicLong();
+	private int generation = 0;
+	private long [] counters;
+	private long generationStart;
+	private volatile boolean stop = false;
+
+	private Tree bestTree = null;
+
+	// keeps the equal subtrees of the descendents once, replaced every generation
+	private volatile NodeStore store = new NodeStore();
+
+	/**
+	 * Constructor
+	 * @param term
+	 * @param data
+	 * @param target
+	 * @param conf
+	 */
+	public SteadyStatePopulation(String [] term, double [][] data, String [] target, Configuration conf) {
+		this.terminals = term;
+		this.data = new Dataset(data, conf.isSinglePrecision());
+		this.target = target;
+		this.conf = conf;
+
+		tournamentSize = Math.max(2, (int) (conf.getTournamentFraction() * conf.getPopulationSize()));
+		stoppingCriteria = new StoppingCriteria(conf);
+
+		if(conf.isJmxMetrics())
+			addGenerationListener(Metrics.getInstance());
+
+		// the GO affinity starts uniform, like on Population
+		double [] goa = new double[Constants.NUMBER_OF_GENETIC_OPERATORS];
+		for(int i = 0; i < goa.length; i++) {
+			goa[i] = 1.0/goa.length;
+		}
+		Population.setGOAffinity(goa);
+
+		population = new AtomicReferenceArray<Individual>(conf.getPopulationSize());
+		for(int i = 0; i < population.length(); i++) {
+			Tree t = new Tree(term, 0, maxDepth, conf);
+			t.setGOA(Arrays.copy(goa));
+			// simplified like the descendents, so they can be compared with them
+			t.clean();
+			t.intern(store);
+			population.set(i, new Individual(t, Double.NaN));
+		}
+	}
+
+	/**
+	 * Trains the classifier within a budget
+	 * @param timeBudget wall-clock budget in milliseconds, <= 0 for none
+	 * @param evaluationBudget maximum number of fitness evaluations, <= 0 for none
+	 * @return the best tree of the train
+	 */
+	public Tree train(long timeBudget, long evaluationBudget) {
+		stoppingCriteria = new StoppingCriteria(conf.withTimeBudget(timeBudget).withEvaluationBudget(evaluationBudget));
+		return train();
+	}
+
+	/**
+	 * Trains the classifier with conf.getNumberOfThreads() threads
+	 * @return the best tree of the train
+	 */
+	public Tree train() {
+		message("Starting steady-state train...");
+		stoppingCriteria.start();
+		generation = 0;
+		stop = false;
+
+		// the initial trees are evaluated before any thread reads them
+		for(int i = 0; i < population.length(); i++) {
+			Tree t = population.get(i).tree;
+			population.set(i, new Individual(t, PopulationFunctions.fitnessTrain(t, data, target, stoppingCriteria.getEvaluationCounter())));
+		}
+
+		births.set(0);
+		counters = Metrics.counters();
+		generationStart = System.nanoTime();
+		stop = stoppingCriteria.met(generation);
+
+		Thread [] workers = new Thread[conf.getNumberOfThreads()];
+		for(int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Worker(), "m3gp-steady-state-" + i);
+			workers[i].start();
+		}
+		for(Thread w : workers) {
+			try {
+				w.join();
+			}catch(InterruptedException e) {
+				stop = true;
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		message("Train stopped at generation " + generation + ": " + stoppingCriteria.getReason());
+		// the pruning is skipped if the budget was spent, so the train does not exceed it
+		bestTree = best().tree;
+		if(!stoppingCriteria.budgetSpent())
+			bestTree = PopulationFunctions.prun(bestTree, data, target, stoppingCriteria.getEvaluationCounter());
+		// the workers ended with their buffers, this thread keeps its own
+		Tree.releaseBuffers();
+		return bestTree;
+	}
+
+	/**
+	 * Adds a listener that receives the metrics of each generation
+	 * @param listener
+	 */
+	public void addGenerationListener(GenerationListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeGenerationListener(GenerationListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Replaces the criteria used to stop the train
+	 * @param stoppingCriteria
+	 */
+	public void setStoppingCriteria(StoppingCriteria stoppingCriteria) {
+		this.stoppingCriteria = stoppingCriteria;
+	}
+
+	/**
+	 * Returns the best tree found during the train, or null if the
+	 * classifier has not been trained yet
+	 */
+	public Tree getBestTree() {
+		return bestTree;
+	}
+
+	public Configuration getConfiguration() {
+		return conf;
+	}
+
+	public String toString(){
+		if(bestTree == null)
+			return "This classifier has not been trained yet.";
+		else
+			return bestTree.toString();
+	}
+
+	private boolean better(double f1, double f2) {
+		return conf.isSmallerBetter() ? f1 < f2 : f1 > f2;
+	}
+
+	/**
+	 * Returns the winner of a tournament among random slots
+	 */
+	private Tree tournament() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Individual winner = population.get(random.nextInt(population.length()));
+		for(int i = 1; i < tournamentSize; i++) {
+			Individual candidate = population.get(random.nextInt(population.length()));
+			if(better(candidate.fitness, winner.fitness))
+				winner = candidate;
+		}
+		return winner.tree;
+	}
+
+	/**
+	 * Returns the slot of the loser of an inverse tournament
+	 */
+	private int loser() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int loser = random.nextInt(population.length());
+		Individual worst = population.get(loser);
+		for(int i = 1; i < tournamentSize; i++) {
+			int candidate = random.nextInt(population.length());
+			Individual c = population.get(candidate);
+			if(better(worst.fitness, c.fitness)) {
+				loser = candidate;
+				worst = c;
+			}
+		}
+		return loser;
+	}
+
+	/**
+	 * Replaces worst, the individual of the slot, by the descendent, unless
+	 * the descendent is worse or the slot was replaced in the meantime
+	 * @param slot
+	 * @param worst
+	 * @param desc
+	 */
+	private void replace(int slot, Individual worst, Individual desc) {
+		if(!better(worst.fitness, desc.fitness))
+			population.compareAndSet(slot, worst, desc);
+	}
+
+	/**
+	 * Returns the individual with the best fitness
+	 */
+	private Individual best() {
+		Individual best = population.get(0);
+		for(int i = 1; i < population.length(); i++) {
+			Individual c = population.get(i);
+			if(better(c.fitness, best.fitness))
+				best = c;
+		}
+		return best;
+	}
+
+	/**
+	 * Ends a generation: updates the stopping criteria and the listeners
+	 */
+	private synchronized void endGeneration() {
+		Individual best = best();
+		double train = best.tree.getTrainAccuracy(data, target);
+		if(generation%5 == 0)
+			message("Generation " + generation + ": " + train);
+
+		stoppingCriteria.update(best.fitness, train);
+
+		if(!listeners.isEmpty()) {
+			long [] end = Metrics.counters();
+			long now = System.nanoTime();
+			GenerationMetrics metrics = new GenerationMetrics(generation,
+					new long[] {0, 0, now - generationStart, 0, 0}, counters, end, best.fitness);
+			for(GenerationListener listener : listeners)
+				listener.generationFinished(metrics);
+			counters = end;
+			generationStart = now;
+		}
+
+		store = new NodeStore();
+		generation++;
+		if(stoppingCriteria.met(generation))
+			stop = true;
+	}
+
+	private void message(String s){
+		if(conf.isMessages())
+			System.out.println(s);
+	}
+
+	private class Worker implements Runnable{
+		public void run() {
+			Tree [] parents = new Tree[3];
+			int [] losers = new int[3];
+			Individual [] worst = new Individual[3];
+			while(!stop) {
+				if(stoppingCriteria.budgetSpent()) {
+					stop = true;
+					break;
+				}
+
+				for(int i = 0; i < parents.length; i++)
+					parents[i] = tournament();
+
+				// the slots are picked first, so the descendents that can
+				// not replace any of them are not evaluated to the end
+				double bound = 0;
+				for(int i = 0; i < losers.length; i++) {
+					losers[i] = loser();
+					worst[i] = population.get(losers[i]);
+					if(i == 0 || better(bound, worst[i].fitness))
+						bound = worst[i].fitness;
+				}
+
+				Tree [] desc = TreeGeneticOperatorHandler.breed(parents, terminals, data, target, conf, null, bound, store, stoppingCriteria.getEvaluationCounter());
+				for(int i = 0; i < desc.length; i++) {
+					Tree t = desc[i];
+					replace(losers[i], worst[i], new Individual(t, PopulationFunctions.fitnessTrain(t, data, target, bound, stoppingCriteria.getEvaluationCounter())));
+					if(births.incrementAndGet() % population.length() == 0)
+						endGeneration();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package weka.classifiers.trees.m3gp.population;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import weka.classifiers.trees.m3gp.client.Configuration;
+
+/**
+ * Decides when the evolution of a population should stop.
+ * The train stops when any of the criteria is met:
+ * - the maximum number of generations was reached;
+ * - the best fitness did not improve during a number of generations;
+ * - the wall-clock budget was spent;
+ * - the fitness evaluation budget was spent;
+ * - the best tree reached the target train accuracy.
+ * Values <= 0 disable the stagnation, time and evaluation criteria.
+ *
+ * The fitness evaluations are counted by each train on its own counter
+ * (getEvaluationCounter), so trains on the same JVM do not spend each
+ * other's budgets.
+ */
+public class StoppingCriteria {
+	private int maxGenerations;
+	private int stagnationGenerations;
+	private long timeBudget;
+	private long evaluationBudget;
+	private double targetAccuracy;
+	private boolean smallerIsBetter;
+
+	// state of the current train
+	private long startTime;
+	private final LongAdder evaluations = new LongAdder();
+	private double bestFitness;
+	private int stagnantGenerations;
+	private volatile String reason = null;
+	// true once the time or the evaluation budget was spent
+	private volatile boolean spent = false;
+
+	/**
+	 * Constructor, using the criteria of the configuration
+	 * @param conf
+	 */
+	public StoppingCriteria(Configuration conf) {
+		this.maxGenerations = conf.getNumberOfGenerations();
+		this.stagnationGenerations = conf.getStagnationGenerations();
+		this.timeBudget = conf.getTimeBudget();
+		this.evaluationBudget = conf.getEvaluationBudget();
+		this.targetAccuracy = conf.getTargetAccuracy();
+		this.smallerIsBetter = conf.isSmallerBetter();
+	}
+
+	/**
+	 * Resets the state, must be called when the train starts
+	 */
+	public void start() {
+		startTime = System.currentTimeMillis();
+		evaluations.reset();
+		bestFitness = Double.NaN;
+		stagnantGenerations = 0;
+		reason = null;
+		spent = false;
+	}
+
+	/**
+	 * Updates the state with the results of the last generation
+	 * @param fitness fitness of the best tree of the generation
+	 * @param trainAccuracy train accuracy of the best tree of the generation
+	 */
+	public void update(double fitness, double trainAccuracy) {
+		boolean improved = Double.isNaN(bestFitness) ||
+				(smallerIsBetter ? fitness < bestFitness : fitness > bestFitness);
+		if(improved) {
+			bestFitness = fitness;
+			stagnantGenerations = 0;
+		}else {
+			stagnantGenerations++;
+		}
+
+		if(reason == null && trainAccuracy >= targetAccuracy)
+			reason = "target accuracy reached";
+	}
+
+	/**
+	 * Returns true if the train should stop before the given generation
+	 * @param generation
+	 */
+	public boolean met(int generation) {
+		if(reason != null)
+			return true;
+
+		if(generation >= maxGenerations)
+			reason = "maximum number of generations reached";
+		else if(stagnationGenerations > 0 && stagnantGenerations >= stagnationGenerations)
+			reason = "no improvement in " + stagnantGenerations + " generations";
+		else
+			budgetSpent();
+
+		return reason != null;
+	}
+
+	/**
+	 * Returns true if the time or the evaluation budget was spent, even
+	 * if the train stopped for other reason. Unlike met, this can be checked
+	 * in the middle of a generation, including from the reproduction threads
+	 */
+	public boolean budgetSpent() {
+		if(spent)
+			return true;
+
+		String reason = null;
+		if(timeBudget > 0 && elapsedTime() >= timeBudget)
+			reason = "time budget spent";
+		else if(evaluationBudget > 0 && evaluations() >= evaluationBudget)
+			reason = "evaluation budget spent";
+
+		if(reason != null) {
+			if(this.reason == null)
+				this.reason = reason;
+			spent = true;
+		}
+		return spent;
+	}
+
+	/**
+	 * Returns the milliseconds elapsed since the train started
+	 */
+	public long elapsedTime() {
+		return System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Returns the number of fitness evaluations since the train started
+	 */
+	public long evaluations() {
+		return evaluations.sum();
+	}
+
+	/**
+	 * Returns the counter of the fitness evaluations of the train, passed
+	 * to PopulationFunctions.fitnessTrain
+	 */
+	public LongAdder getEvaluationCounter() {
+		return evaluations;
+	}
+
+	/**
+	 * Returns the reason why the train stopped, or null if it did not stop
+	 */
+	public String getReason() {
+		return reason;
+	}
+}
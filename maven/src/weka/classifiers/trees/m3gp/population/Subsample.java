@@ -0,0 +1,122 @@
+package weka.classifiers.trees.m3gp.population;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import weka.classifiers.trees.m3gp.client.Configuration;
+import weka.classifiers.trees.m3gp.util.Dataset;
+import weka.classifiers.trees.m3gp.util.Mat;
+
+/**
+ * Rotating stratified subsample of the train rows, used to evaluate the
+ * trees of a generation on large datasets.
+ *
+ * The train rows of each class are shuffled once, and each class gets a
+ * share of the sample proportional to its size (at least one row). Each
+ * call to next() moves the window of each class forward, so over the
+ * generations every train row is used.
+ *
+ * The sample is a dataset like the original one, where the first
+ * conf.trainSize(n) rows are the sampled train rows and the others are
+ * test rows that only fill it up, so it is evaluated by fitnessTrain
+ * like the full dataset. The rows are shared, not copied.
+ */
+public class Subsample {
+	private Dataset data;
+	private String [] target;
+	private int trainSize;
+
+	// shuffled train rows of each class, the size and start of their windows
+	private int [][] rows;
+	private int [] quota;
+	private int [] offset;
+
+	// row of data of each row of the sample
+	private int [] sampleRows;
+	private Dataset sampleData;
+	private String [] sampleTarget;
+
+	/**
+	 * Prepares a sample with about size train rows
+	 * @param data
+	 * @param target
+	 * @param size
+	 * @param conf
+	 */
+	public Subsample(Dataset data, String [] target, int size, Configuration conf) {
+		this.data = data;
+		this.target = target;
+		trainSize = conf.trainSize(data.length());
+
+		LinkedHashMap<String, ArrayList<Integer>> classes = new LinkedHashMap<String, ArrayList<Integer>>();
+		for(int i = 0; i < trainSize; i++) {
+			ArrayList<Integer> c = classes.get(target[i]);
+			if(c == null) {
+				c = new ArrayList<Integer>();
+				classes.put(target[i], c);
+			}
+			c.add(i);
+		}
+
+		rows = new int[classes.size()][];
+		quota = new int[rows.length];
+		offset = new int[rows.length];
+		int k = 0, c = 0;
+		for(ArrayList<Integer> list : classes.values()) {
+			int [] r = new int[list.size()];
+			for(int i = 0; i < r.length; i++)
+				r[i] = list.get(i);
+			for(int i = r.length - 1; i > 0; i--) {
+				int j = Mat.random(i + 1);
+				int swap = r[i];
+				r[i] = r[j];
+				r[j] = swap;
+			}
+			rows[c] = r;
+			quota[c] = Math.min(r.length, Math.max(1, (int) Math.round((double) size * r.length / trainSize)));
+			offset[c] = -quota[c];
+			k += quota[c];
+			c++;
+		}
+
+		// the smallest dataset whose first k rows are the train rows
+		int n = k;
+		while(conf.trainSize(n) < k)
+			n++;
+		sampleRows = new int[n];
+		sampleTarget = new String[n];
+		int test = data.length() - trainSize;
+		for(int i = k; i < n; i++) {
+			int row = test > 0 ? trainSize + (i - k) % test : i % trainSize;
+			sampleRows[i] = row;
+			sampleTarget[i] = target[row];
+		}
+	}
+
+	/**
+	 * Moves to the next sample. The dataset of the sample is new, so the
+	 * fitness and clusters cached by the trees for the last one are not reused
+	 */
+	public void next() {
+		sampleTarget = sampleTarget.clone();
+		int i = 0;
+		for(int c = 0; c < rows.length; c++) {
+			offset[c] = (offset[c] + quota[c]) % rows[c].length;
+			for(int j = 0; j < quota[c]; j++) {
+				int row = rows[c][(offset[c] + j) % rows[c].length];
+				sampleRows[i] = row;
+				sampleTarget[i] = target[row];
+				i++;
+			}
+		}
+		sampleData = data.select(sampleRows);
+	}
+
+	public Dataset getData() {
+		return sampleData;
+	}
+
+	public String[] getTarget() {
+		return sampleTarget;
+	}
+}
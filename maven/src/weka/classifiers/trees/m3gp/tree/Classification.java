@@ -1,51 +1,51 @@
 package weka.classifiers.trees.m3gp.tree;
 
-import weka.classifiers.trees.m3gp.client.Constants;
-
 public class Classification {
-	
+
 	public static String predict(Tree t, double[] d) {
-		String p = null;
-		switch(Constants.DISTANCE_USED) {
-		case 1:
-			p = mahalanobisDistance(t, d);
-			break;
-		case 2:
-			p = euclideanDistance(t,d);
-			break;
-		}
-		return p;
+		return t.classes.get(t.predictClass(t.calculateAll(d)));
 	}
-	
-	public static String mahalanobisDistance(Tree t, double[] d) {
-		double [] result = t.calculateAll(d);
-		double [] distancias = t.calculateMHLNB(result);
 
-		double minDist = distancias[0];
-		String prediction = t.classes.get(0);
-		for(int i = 0; i < distancias.length; i++) {
-			if(distancias[i] < minDist) {
-				minDist = distancias[i];
-				prediction = t.classes.get(i);
-			}
+	/**
+	 * Returns the predictions for all the rows of data
+	 * @param t
+	 * @param data
+	 * @return
+	 */
+	public static String[] predict(Tree t, double[][] data) {
+		double [][] points = t.calculateAll(data, 0, data.length);
+		String [] predictions = new String[data.length];
+		int [] classes = t.predictClass(points);
+		for(int i = 0; i < data.length; i++) {
+			predictions[i] = t.classes.get(classes[i]);
 		}
-
-		return prediction;
+		return predictions;
 	}
 	
-	private static String euclideanDistance(Tree t, double []d) {
-		double [] result = t.calculateAll(d);
-		double [] distancias = t.calculateEucDistances(result);
+	/**
+	 * Returns the distance from d to each class of the tree,
+	 * using the distance model of the tree
+	 * @param t
+	 * @param d
+	 * @return
+	 */
+	public static double[] distances(Tree t, double[] d) {
+		return t.calculateDistances(t.calculateAll(d));
+	}
 
-		double minDist = distancias[0];
-		String prediction = t.classes.get(0);
-		for(int i = 0; i < distancias.length; i++) {
-			if(distancias[i] < minDist) {
-				minDist = distancias[i];
-				prediction = t.classes.get(i);
-			}
+	/**
+	 * Returns the distances from each row of data to each class
+	 * @param t
+	 * @param data
+	 * @return
+	 */
+	public static double[][] distances(Tree t, double[][] data) {
+		// the batch is projected at once
+		double [][] points = t.calculateAll(data, 0, data.length);
+		double [][] distancias = new double[data.length][];
+		for(int i = 0; i < data.length; i++) {
+			distancias[i] = t.calculateDistances(points[i]);
 		}
-
-		return prediction;
+		return distancias;
 	}
-}
\ No newline at end of file
+}
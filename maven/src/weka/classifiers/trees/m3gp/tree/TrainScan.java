@@ -0,0 +1,187 @@
+package weka.classifiers.trees.m3gp.tree;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+import weka.classifiers.trees.m3gp.distance.DistanceModel;
+import weka.classifiers.trees.m3gp.metrics.Metrics;
+import weka.classifiers.trees.m3gp.util.Arrays;
+import weka.classifiers.trees.m3gp.util.Dataset;
+
+/**
+ * Single pass over the train rows projected by a tree, done after its
+ * clusters are calculated: counts the hits of the distance model and
+ * accumulates the distance of each row to the centroid of its class, so
+ * the accuracy and the distance fitness functions never project the rows
+ * again.
+ *
+ * When only the accuracy is needed the pass can stop as soon as the hits
+ * can not reach a bound (racing), and continue later if the exact values
+ * are needed. Unless the tree keeps its projections, the remaining rows
+ * are then projected again.
+ */
+class TrainScan implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	// tree and rows, to project the rows again; not kept by the serialization
+	private transient Tree tree;
+	private transient Dataset data;
+	// projected train rows, null if the tree does not keep them
+	private final Dataset points;
+
+	private final String [] target;
+	private final HashMap<String, Integer> classIndex;
+	private final DistanceModel model;
+	// model of the MHLNB distances, null if they are not accumulated
+	private final DistanceModel mahalanobis;
+	private final double [][] mu;
+	private final int n;
+
+	// rows already scanned
+	private int rows = 0;
+	private double hits = 0;
+	private double squaredDistance = 0;
+	private double manhattanDistance = 0;
+	private double squaredMHLNBDistance = 0;
+
+	/**
+	 * Prepares the pass
+	 * @param tree
+	 * @param data
+	 * @param target
+	 * @param n number of train rows
+	 * @param points projected train rows kept by the tree, may be null
+	 * @param classIndex index of each class on the models
+	 * @param model distance model used to classify
+	 * @param mahalanobis model of the MHLNB distances, may be null
+	 * @param mu centroid of each class
+	 */
+	TrainScan(Tree tree, Dataset data, String [] target, int n, Dataset points,
+			HashMap<String, Integer> classIndex, DistanceModel model, DistanceModel mahalanobis, double [][] mu) {
+		this.tree = tree;
+		this.data = data;
+		this.target = target;
+		this.n = n;
+		this.points = points;
+		this.classIndex = classIndex;
+		this.model = model;
+		this.mahalanobis = mahalanobis;
+		this.mu = mu;
+	}
+
+	/**
+	 * Continues the pass on the projection of the train rows, until the
+	 * last row or until the hits can not reach bound (as a fraction of the rows)
+	 * @param projected projection of the rows, at least up to the last train row
+	 * @param from row of projected[0]
+	 * @param bound Double.NEGATIVE_INFINITY to scan all the rows
+	 * @return true if all the rows were scanned
+	 */
+	synchronized boolean run(Dataset projected, int from, double bound) {
+		double [] row = new double[mu[0].length];
+		for(; rows < n; rows++) {
+			if((hits + n - rows)/n < bound) {
+				Metrics.RACING_ABORTS.increment();
+				return false;
+			}
+			double [] x = projected.getRow(rows - from, row);
+			int c = classIndex.get(target[rows]);
+			if(model.predict(x) == c)
+				hits++;
+			squaredDistance += Math.pow(Arrays.euclideanDistance(x, mu[c]), 2);
+			manhattanDistance += Arrays.manhattanDistance(x, mu[c]);
+			if(mahalanobis != null)
+				squaredMHLNBDistance += Math.pow(mahalanobis.distance(x, c), 2);
+		}
+		return true;
+	}
+
+	/**
+	 * Continues the pass, see run(projected, from, bound)
+	 * @param bound
+	 * @return true if all the rows were scanned
+	 */
+	synchronized boolean run(double bound) {
+		if(rows == n)
+			return true;
+		if(points != null)
+			return run(points, 0, bound);
+		return run(tree.project(data, rows, n, true), rows, bound);
+	}
+
+	/**
+	 * Gives the tree and the rows of the pass, which are not kept by the
+	 * serialization, so a deserialized pass can project the rows again
+	 * @param tree
+	 * @param data
+	 */
+	synchronized void attach(Tree tree, Dataset data) {
+		this.tree = tree;
+		this.data = data;
+	}
+
+	/**
+	 * Returns a copy of the pass, at the same row, that projects the
+	 * remaining rows with tree
+	 * @param tree a tree with the same dimensions
+	 */
+	synchronized TrainScan copy(Tree tree) {
+		TrainScan copy = new TrainScan(tree, data, target, n, points, classIndex, model, mahalanobis, mu);
+		copy.rows = rows;
+		copy.hits = hits;
+		copy.squaredDistance = squaredDistance;
+		copy.manhattanDistance = manhattanDistance;
+		copy.squaredMHLNBDistance = squaredMHLNBDistance;
+		return copy;
+	}
+
+	/**
+	 * Returns the number of rows
+	 */
+	int size() {
+		return n;
+	}
+
+	/**
+	 * Returns the hits, or their upper bound if the pass was stopped
+	 */
+	synchronized double getHits() {
+		return hits + n - rows;
+	}
+
+	/**
+	 * Returns the sum of the squared euclidean distance of each row to the
+	 * centroid of its class
+	 */
+	synchronized double getSquaredDistance() {
+		run(Double.NEGATIVE_INFINITY);
+		return squaredDistance;
+	}
+
+	/**
+	 * Returns the sum of the manhattan distance of each row to the centroid
+	 * of its class
+	 */
+	synchronized double getManhattanDistance() {
+		run(Double.NEGATIVE_INFINITY);
+		return manhattanDistance;
+	}
+
+	/**
+	 * Returns the sum of the squared distance of each row to the centroid of
+	 * its class, with m, which is only calculated again if it is not the
+	 * model of the MHLNB distances of the pass
+	 * @param m mahalanobis model
+	 */
+	synchronized double getSquaredMHLNBDistance(DistanceModel m) {
+		run(Double.NEGATIVE_INFINITY);
+		if(m == mahalanobis)
+			return squaredMHLNBDistance;
+		Dataset projected = points != null ? points : tree.project(data, 0, n, true);
+		double [] row = new double[mu[0].length];
+		double sum = 0;
+		for(int i = 0; i < n; i++)
+			sum += Math.pow(m.distance(projected.getRow(i, row), classIndex.get(target[i])), 2);
+		return sum;
+	}
+}
@@ -2,12 +2,22 @@ package weka.classifiers.trees.m3gp.tree;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 
+import weka.classifiers.trees.m3gp.client.Configuration;
 import weka.classifiers.trees.m3gp.client.Constants;
+import weka.classifiers.trees.m3gp.distance.DistanceModel;
+import weka.classifiers.trees.m3gp.distance.DistanceModels;
+import weka.classifiers.trees.m3gp.distance.MahalanobisDistance;
+import weka.classifiers.trees.m3gp.metrics.Metrics;
 import weka.classifiers.trees.m3gp.node.Node;
+import weka.classifiers.trees.m3gp.node.NodeStore;
+import weka.classifiers.trees.m3gp.node.Program;
 import weka.classifiers.trees.m3gp.population.Population;
+import weka.classifiers.trees.m3gp.util.AliasTable;
 import weka.classifiers.trees.m3gp.util.Arrays;
-import weka.classifiers.trees.m3gp.util.Matrix;
+import weka.classifiers.trees.m3gp.util.ClusterStatistics;
+import weka.classifiers.trees.m3gp.util.Dataset;
 
 /**
  * 
@@ -20,16 +30,48 @@ public class Tree implements Serializable{
 	 */
 	private static final long serialVersionUID = 1L;
 
+	// buffers of each thread for the projection of the train rows, when the trees do not keep it,
+	// one per number of dimensions (the rows are read by their length); released at the end
+	// of the train (releaseBuffers), since each one takes rows * dims values
+	private static final ThreadLocal<double[][][]> BUFFER = new ThreadLocal<double[][][]>();
+	private static final ThreadLocal<float[][][]> SINGLE_BUFFER = new ThreadLocal<float[][][]>();
+
 	private double[] goAffinity; // Probabilidades de cada genetic operator
+	private transient AliasTable goaTable = null; // roulette of goAffinity, null if it changed
 	
 	private ArrayList<Node> dimensions;
-
-	private ArrayList<double[][]> covarianceMatrix = null;
+	// true if the dimensions are on a NodeStore, shared with other trees
+	private boolean interned = false;
+	// dimensions compiled into one program, null if not compiled yet
+	private transient volatile Program program = null;
+
+	// parameters of the train this tree belongs to
+	private Configuration conf;
+
+	// number of nodes of all the dimensions, -1 if not calculated yet
+	private int size = -1;
+
+	// statistics of the projected train points of each class
+	private ClusterStatistics stats = null;
+	// model used to classify, and the mahalanobis model used by the MHLNB fitness
+	private DistanceModel distanceModel = null;
+	private DistanceModel mahalanobis = null;
 	private ArrayList<double[]> mu = null;
+	// data the clusters were calculated on, null if it is not known (e.g. after deserialization)
+	private transient Dataset clusterData = null;
 	ArrayList<String> classes;
 	
 	private String[] target;
-	private double[][] map;
+	// projection of the train rows, null unless conf.isRetainProjections()
+	private Dataset map;
+	// pass over the projected train rows with the accuracy and the distances to the centroids
+	private TrainScan scan = null;
+
+	// fitness on fitnessData, which is null if it was not calculated yet;
+	// if partial, the evaluation was stopped (racing) and fitness is only an upper bound
+	private transient volatile Dataset fitnessData = null;
+	private transient double fitness;
+	private transient boolean partial;
 
 	/**
 	 * Constructor
@@ -40,6 +82,18 @@ public class Tree implements Serializable{
 	 * @param depth
 	 */
 	public Tree(String [] term, double t_rate, int depth){
+		this(term, t_rate, depth, Configuration.DEFAULT);
+	}
+
+	/**
+	 * Constructor
+	 * @param term
+	 * @param t_rate
+	 * @param depth
+	 * @param conf
+	 */
+	public Tree(String [] term, double t_rate, int depth, Configuration conf){
+		this.conf = conf;
 		dimensions = new ArrayList<Node>();
 		dimensions.add(new Node(term,depth));
 		
@@ -50,9 +104,8 @@ public class Tree implements Serializable{
 	}
 	
 
-	@SuppressWarnings("unused")
 	public double[] getGOA(){
-		if(Constants.PROBABILITY_ADAPTATION > 0)
+		if(conf.getProbabilityAdaptation() > 0)
 			return Arrays.copy(goAffinity);
 		else
 			return Population.goAffinity;
@@ -60,22 +113,39 @@ public class Tree implements Serializable{
 
 	public void setGOA(double [] goa) {
 		goAffinity = goa;
+		goaTable = null;
+	}
+
+	/**
+	 * Picks a genetic operator by roulette on the GO affinity
+	 * (of this tree or the global one)
+	 */
+	public int pickGeneticOperator() {
+		if(conf.getProbabilityAdaptation() <= 0)
+			return Population.getGOAffinityTable().sample();
+		AliasTable table = goaTable;
+		if(table == null) {
+			table = new AliasTable(goAffinity);
+			goaTable = table;
+		}
+		return table.sample();
 	}
 
 	public void incGOA(int operation) {
 		//goAffinity[operation] += 0.1;
-		goAffinity[operation] = 1 - ( (1 - goAffinity[operation]) * Constants.LEARNING_T );
+		goAffinity[operation] = 1 - ( (1 - goAffinity[operation]) * conf.getLearningT() );
 		fixGOA();
 	}
 
 	public void decGOA(int operation) {
 		//goAffinity[operation] *= 0.95;
-		goAffinity[operation] *= Constants.LEARNING_T ;
+		goAffinity[operation] *= conf.getLearningT() ;
 		fixGOA();
 	}
 	
 	private void fixGOA() {
 		goAffinity = Arrays.normalize(goAffinity);
+		goaTable = null;
 		/*
 		for(int ii = 0; ii< goAffinity.length; ii++) {
 			goAffinity[ii] -=0.05;
@@ -92,11 +162,29 @@ public class Tree implements Serializable{
 	}
 
 	public Tree(ArrayList<Node> dim) {
+		this(dim, Configuration.DEFAULT);
+	}
+
+	public Tree(ArrayList<Node> dim, Configuration conf) {
+		this.conf = conf;
 		dimensions = dim;
 	}
-	
+
+	/**
+	 * Creates a descendent of parent, with its GOA and configuration
+	 * @param dim
+	 * @param parent
+	 */
+	public Tree(ArrayList<Node> dim, Tree parent) {
+		this(dim, parent.getGOA(), parent.conf);
+	}
 
 	public Tree(ArrayList<Node> dim, double [] goa) {
+		this(dim, goa, Configuration.DEFAULT);
+	}
+
+	public Tree(ArrayList<Node> dim, double [] goa, Configuration conf) {
+		this.conf = conf;
 		dimensions = dim;
 
 		if(goa != null){
@@ -122,90 +210,270 @@ public class Tree implements Serializable{
 	}
 
 	public int getSize() {
-		int size = 0;
-		for(int i = 0; i < dimensions.size(); i++) {
-			size += dimensions.get(i).getSize();
+		if(size == -1) {
+			int size = 0;
+			for(int i = 0; i < dimensions.size(); i++) {
+				size += dimensions.get(i).getSize();
+			}
+			this.size = size;
 		}
 		return size;
 	}
 	
-	public double[][] getMap(){
+	/**
+	 * Returns the projection of the train rows, null if the tree does
+	 * not keep it (see Configuration.isRetainProjections)
+	 */
+	public Dataset getMap(){
 		return map;
 	}
 	
+	public Configuration getConfiguration() {
+		return conf;
+	}
+
 	public String[] getTarget() {
 		return target;
 	}
 
-	private void makeCluster(double [][] data, String [] target) {
+	/**
+	 * Calculates the clusters and starts the pass over the projected train
+	 * rows, which stops if the accuracy can not reach bound
+	 */
+	private void makeCluster(Dataset data, String [] target, double bound) {
 		this.target = target;
-		this.map = new double[(int)(data.length * Constants.TRAIN_FRACTION)][dimensions.size()];
 		
 		classes = new ArrayList<String>();
-		ArrayList<ArrayList<double []>> clusters = new ArrayList<ArrayList<double[]>>();
+		HashMap<String, Integer> classIndex = new HashMap<String, Integer>();
 
-		//Descobre o numero de classes e cria um numero de clusters igual ao numero de classes
-		for(int i = 0; i < (int)(target.length * Constants.TRAIN_FRACTION); i++) {
-			if(!classes.contains(target[i])) {
+		//Descobre o numero de classes
+		for(int i = 0; i < conf.trainSize(target.length); i++) {
+			if(!classIndex.containsKey(target[i])) {
+				classIndex.put(target[i], classes.size());
 				classes.add(target[i]);
-				clusters.add(new ArrayList<double[]>());
 			}
 		}
 		
-		//Adiciona os pontos ao cluster
-		for(int i = 0, index = -1; i < (int)(data.length * Constants.TRAIN_FRACTION);i++) {
-			index = classes.indexOf(target[i]);
-			
-			double [] d = new double[dimensions.size()];
-			for(int j = 0; j < dimensions.size(); j++) {
-				d[j] = calculate(j,data[i]);
-			}
-			map[i] = d;
-			clusters.get(index).add(d);
+		//Projecta os pontos e acumula a media e a covariancia de cada classe
+		int n = conf.trainSize(data.length());
+		Dataset points = project(data, 0, n, !conf.isRetainProjections());
+		map = conf.isRetainProjections() ? points : null;
+		stats = new ClusterStatistics(classes.size(), dimensions.size());
+		double [] row = new double[dimensions.size()];
+		for(int i = 0; i < n;i++) {
+			stats.add(classIndex.get(target[i]), points.getRow(i, row));
 		}
 
-		covarianceMatrix = new ArrayList<double[][]>();
-		for(int i = 0; i<clusters.size(); i++) {
-			covarianceMatrix.add(Matrix.covarianceMatrix(clusters.get(i)));
+		mu = new ArrayList<double[]>();
+		for(int i = 0; i < classes.size(); i++) {
+			mu.add(stats.getMean(i));
 		}
 
-		// Calculo de mu
-		mu = new ArrayList<double[]>();
-		for(int i = 0; i < clusters.size();i++){
-			mu.add(new double[clusters.get(i).get(0).length]);
-			for(int j = 0; j < clusters.get(i).size(); j++){
-				for(int k = 0; k < mu.get(i).length; k++) {
-					mu.get(i)[k] += clusters.get(i).get(j)[k];
-				}
-			}
-			for(int j = 0; j < mu.get(i).length; j++){
-				mu.get(i)[j] /= clusters.get(i).size();
-			}
+		distanceModel = DistanceModels.create(conf.getDistanceUsed(), conf.getShrinkage());
+		distanceModel.fit(stats);
+		mahalanobis = distanceModel instanceof MahalanobisDistance ? distanceModel : null;
+
+		// the MHLNB fitness needs the mahalanobis distances, accumulated on the same pass
+		double [][] centroids = mu.toArray(new double[mu.size()][]);
+		scan = new TrainScan(this, data, target, n, map, classIndex, distanceModel,
+				conf.getFitnessType() == -6 ? mahalanobis() : null, centroids);
+		scan.run(points, 0, bound);
+		clusterData = data;
+	}
+
+	/**
+	 * Returns the projection of the rows from (inclusive) to to (exclusive)
+	 * of data, in the precision of data. If buffered, the projection is
+	 * written on the buffer of this thread, and only valid until the next one
+	 * @param data
+	 * @param from
+	 * @param to
+	 * @param buffered
+	 */
+	Dataset project(Dataset data, int from, int to, boolean buffered) {
+		int dims = program().outputs();
+		if(!data.isSinglePrecision()) {
+			double [][] points = buffered ? buffer(to - from, dims) : new double[to - from][dims];
+			return new Dataset(calculateAll(data.getValues(), from, to, points), false);
+		}
+		float [][] points = buffered ? singleBuffer(to - from, dims) : new float[to - from][dims];
+		Program p = program();
+		Metrics.NODE_EVALUATIONS.add((long) p.size() * (to - from));
+		double [] registers = p.registers();
+		float [][] rows = data.getSingleValues();
+		for(int i = 0; i < to - from; i++) {
+			p.calculate(rows[from + i], registers, points[i]);
 		}
+		return new Dataset(points);
 	}
 
-	private double calculate(int dimension, double [] d) {
-		return dimensions.get(dimension).calculate(d);
+	/**
+	 * Returns the buffer of this thread for the projection of rows rows
+	 * with dims dimensions, replaced only if it has less rows
+	 */
+	private static double[][] buffer(int rows, int dims) {
+		double [][][] buffers = BUFFER.get();
+		if(buffers == null || buffers.length <= dims) {
+			buffers = buffers == null ? new double[dims+1][][] : java.util.Arrays.copyOf(buffers, dims+1);
+			BUFFER.set(buffers);
+		}
+		double [][] b = buffers[dims];
+		if(b == null || b.length < rows) {
+			b = new double[Math.max(rows, 1)][dims];
+			buffers[dims] = b;
+		}
+		return b;
 	}
-	
+
+	/**
+	 * Releases the projection buffers of this thread. The trains call it
+	 * when they end, on the threads that outlive them
+	 */
+	public static void releaseBuffers() {
+		BUFFER.remove();
+		SINGLE_BUFFER.remove();
+	}
+
+	/**
+	 * Like buffer(rows, dims), in single precision
+	 */
+	private static float[][] singleBuffer(int rows, int dims) {
+		float [][][] buffers = SINGLE_BUFFER.get();
+		if(buffers == null || buffers.length <= dims) {
+			buffers = buffers == null ? new float[dims+1][][] : java.util.Arrays.copyOf(buffers, dims+1);
+			SINGLE_BUFFER.set(buffers);
+		}
+		float [][] b = buffers[dims];
+		if(b == null || b.length < rows) {
+			b = new float[Math.max(rows, 1)][dims];
+			buffers[dims] = b;
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the dimensions compiled into one program, where the
+	 * subtrees shared by the dimensions are calculated once
+	 */
+	private Program program() {
+		Program p = program;
+		if(p == null) {
+			p = new Program(dimensions);
+			program = p;
+		}
+		return p;
+	}
+
 	double[] calculateAll(double [] d) {
-		double [] result = new double [dimensions.size()];
-		for(int i = 0; i < result.length; i++) {
-			result[i] = calculate(i,d);
+		Program p = program();
+		// counted like the batches, the LongAdder keeps it cheap on this path
+		Metrics.NODE_EVALUATIONS.add(p.size());
+		if(conf.isSinglePrecision()) {
+			// rounded like the rows of the train
+			double [] result = new double[p.outputs()];
+			p.calculateSinglePrecision(d, p.registers(), result);
+			return result;
+		}
+		return p.calculate(d);
+	}
+
+	/**
+	 * Returns the projection of the rows from (inclusive) to to (exclusive) of data
+	 * @param data
+	 * @param from
+	 * @param to
+	 */
+	double[][] calculateAll(Dataset data, int from, int to) {
+		if(!data.isSinglePrecision())
+			return calculateAll(data.getValues(), from, to);
+		Program p = program();
+		Metrics.NODE_EVALUATIONS.add((long) p.size() * (to - from));
+		double [] registers = p.registers();
+		double [][] points = new double[to - from][p.outputs()];
+		float [][] rows = data.getSingleValues();
+		for(int i = 0; i < to - from; i++) {
+			p.calculate(rows[from + i], registers, points[i]);
 		}
-		return result;
+		return points;
+	}
+
+	/**
+	 * Returns the projection of the rows from (inclusive) to to (exclusive)
+	 * of data, rounded to single precision if conf.isSinglePrecision()
+	 * @param data
+	 * @param from
+	 * @param to
+	 */
+	double[][] calculateAll(double [][] data, int from, int to) {
+		return calculateAll(data, from, to, new double[to - from][program().outputs()]);
+	}
+
+	/**
+	 * Like calculateAll(data, from, to), writing the projections on the
+	 * first rows of points
+	 * @param data
+	 * @param from
+	 * @param to
+	 * @param points at least to-from rows, with one position per dimension
+	 * @return points
+	 */
+	double[][] calculateAll(double [][] data, int from, int to, double [][] points) {
+		Program p = program();
+		Metrics.NODE_EVALUATIONS.add((long) p.size() * (to - from));
+		double [] registers = p.registers();
+		if(conf.isSinglePrecision()) {
+			for(int i = 0; i < to - from; i++) {
+				p.calculateSinglePrecision(data[from + i], registers, points[i]);
+			}
+		}else {
+			for(int i = 0; i < to - from; i++) {
+				p.calculate(data[from + i], registers, points[i]);
+			}
+		}
+		return points;
 	}
 	
 	double[] calculateMHLNB(double [] result) {
-		double [] distancias = new double[classes.size()];
-		for(int i = 0; i < distancias.length; i++) {
-			distancias[i] = Arrays.mahalanobisDistance(result, 
-					mu.get(i), covarianceMatrix.get(i));
+		return mahalanobis().distances(result);
+	}
+
+	/**
+	 * Returns the mahalanobis model of the clusters, fitting it
+	 * the first time it is needed if the tree uses other distance
+	 */
+	private synchronized DistanceModel mahalanobis() {
+		if(mahalanobis == null) {
+			mahalanobis = DistanceModels.create(DistanceModels.MAHALANOBIS);
+			mahalanobis.fit(stats);
 		}
-		return distancias;
+		return mahalanobis;
+	}
+
+	/**
+	 * Returns the distance from the projected point to each class,
+	 * using the distance model of the tree
+	 * @param result projected point
+	 */
+	double[] calculateDistances(double [] result) {
+		return distanceModel.distances(result);
+	}
+
+	/**
+	 * Returns the index on getClasses of the class of the projected point
+	 * @param result projected point
+	 */
+	int predictClass(double [] result) {
+		return distanceModel.predict(result);
+	}
+
+	/**
+	 * Returns the index on getClasses of the class of each projected point
+	 * @param results projected points
+	 */
+	int[] predictClass(double [][] results) {
+		return distanceModel.predict(results);
 	}
 
-	static long t_ax, t_c = 0, t_d = 0, t_i=0;
 	public String predict(double [] d) {
 		return Classification.predict(this, d);
 	}
@@ -214,6 +482,59 @@ public class Tree implements Serializable{
 		return dimensions;
 	}
 
+	/**
+	 * Returns the classes known by this tree, in the same order used by the
+	 * distances of Classification.distances
+	 */
+	public ArrayList<String> getClasses() {
+		return classes;
+	}
+
+	/**
+	 * Calculates the centroids (and covariance matrices) of the classes
+	 * using the train rows, if this was not done yet. The centroids of the
+	 * train are kept, since the tree was selected (and pruned) with them
+	 * @param data rows, converted to the precision of the configuration
+	 * @param target
+	 */
+	public void fit(double [][] data, String [] target) {
+		if(mu == null) {
+			cluster(new Dataset(data, conf.isSinglePrecision()), target);
+			releaseBuffers();
+		}
+	}
+
+	/**
+	 * Calculates the clusters if they were not calculated yet, or if
+	 * they were calculated on other data (e.g. a subsample)
+	 * @param data
+	 * @param target
+	 */
+	private void cluster(Dataset data, String [] target) {
+		cluster(data, target, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * Like cluster(data, target), but if the clusters are calculated, the
+	 * pass over the train rows stops if the accuracy can not reach bound
+	 * @return true if the clusters were calculated
+	 */
+	private boolean cluster(Dataset data, String [] target, double bound) {
+		if (mu == null || (clusterData != null && clusterData != data)) {
+			Metrics.CLUSTER_CACHE_MISSES.increment();
+			makeCluster(data, target, bound);
+			return true;
+		}
+		if(clusterData == null) {
+			// deserialized: the clusters are taken as calculated on data,
+			// which the pass over the train rows needs to continue
+			scan.attach(this, data);
+			clusterData = data;
+		}
+		Metrics.CLUSTER_CACHE_HITS.increment();
+		return false;
+	}
+
 	public int getDepth() {
 		int depth = dimensions.get(0).getDepth();
 		for(int i = 1; i < dimensions.size(); i++) {
@@ -231,7 +552,7 @@ public class Tree implements Serializable{
 	}
 	
 
-	public String toJSON(double[][] data, String[] target) {
+	public String toJSON(Dataset data, String[] target) {
 		StringBuilder sb = new StringBuilder();
 		sb.append(toString()+",\n");
 
@@ -241,13 +562,13 @@ public class Tree implements Serializable{
 		
 		//pontos treino
 		sb.append("            \"Train\":[\n");
-		for(int i = 0; i < (int)(data.length*Constants.TRAIN_FRACTION); i++) {
+		for(int i = 0; i < conf.trainSize(data.length()); i++) {
 			sb.append("                [");
 			for(int dim = 0; dim < dimensions.size(); dim++) {
-				sb.append( "\"" + dimensions.get(dim).calculate(data[i]) +"\"," );
+				sb.append( "\"" + dimensions.get(dim).calculate(data.getRow(i)) +"\"," );
 			}
 			sb.append( "\"" + target[i]+"\"]");
-			if (i < data.length*Constants.TRAIN_FRACTION-1)
+			if (i < conf.trainSize(data.length())-1)
 				sb.append(",");
 			sb.append("\n");
 		}
@@ -255,13 +576,13 @@ public class Tree implements Serializable{
 
 		//pontos teste
 		sb.append("            \"Test\":[\n");
-		for(int i = (int)(data.length*Constants.TRAIN_FRACTION); i < data.length; i++) {
+		for(int i = conf.trainSize(data.length()); i < data.length(); i++) {
 			sb.append("                [");
 			for(int dim = 0; dim < dimensions.size(); dim++) {
-				sb.append( "\"" + dimensions.get(dim).calculate(data[i]) +"\"," );
+				sb.append( "\"" + dimensions.get(dim).calculate(data.getRow(i)) +"\"," );
 			}
 			sb.append( "\"" +  target[i]+"\"]");
-			if (i < data.length-1)
+			if (i < data.length()-1)
 				sb.append(",");
 			sb.append("\n");
 		}
@@ -271,71 +592,64 @@ public class Tree implements Serializable{
 	}
 	
 	// ------- ------- ------- FUNCOES DE FITNESS ------- ------- -------
-	public double getTrainAccuracy(double [][] data, String [] target){
-		if (covarianceMatrix == null) {
-			makeCluster(data, target);
-		}
+	public double getTrainAccuracy(Dataset data, String [] target){
+		cluster(data, target);
 
-		double hits = 0;
-		for(int i = 0; i < (int)(data.length*Constants.TRAIN_FRACTION); i++) {
-			if(predict(data[i]).equals(target[i]))
-				hits++;
-		}
-		return hits/(int)(data.length*Constants.TRAIN_FRACTION);
+		// the hits are counted once, by the pass over the projected train rows
+		scan.run(Double.NEGATIVE_INFINITY);
+		return scan.getHits()/scan.size();
 	}
 
-	public double getTestAccuracy(double [][] data, String [] target){
-		if (covarianceMatrix == null) {
-			makeCluster(data, target);
-		}
+	/**
+	 * Like getTrainAccuracy, but stops counting the hits as soon as the
+	 * accuracy can not reach bound, even if all the remaining rows are hits
+	 * @param data
+	 * @param target
+	 * @param bound
+	 * @return the accuracy if it reaches bound, otherwise an upper bound of it, smaller than bound
+	 */
+	public double getTrainAccuracy(Dataset data, String [] target, double bound){
+		if(!cluster(data, target, bound))
+			scan.run(bound);
+		return scan.getHits()/scan.size();
+	}
+
+	public double getTestAccuracy(Dataset data, String [] target){
+		cluster(data, target);
+		int trainSize = conf.trainSize(data.length());
+		double [][] points = calculateAll(data, trainSize, data.length());
+
+		int [] predictions = distanceModel.predict(points);
 		double hits = 0;
-		for(int i = (int)(data.length*Constants.TRAIN_FRACTION); i < data.length; i++) {
-			if(predict(data[i]).equals(target[i]))
+		for(int i = 0; i < predictions.length; i++) {
+			if(classes.get(predictions[i]).equals(target[trainSize + i]))
 				hits++;
 		}
-		return hits/(target.length - (int)(data.length*Constants.TRAIN_FRACTION));
+		return hits/(target.length - conf.trainSize(data.length()));
 	}
 
 	
 
-	public double getTrainRootMeanSquaredDistanceToCentroid(double [][] data, String[] target) {
-		if (covarianceMatrix == null) {
-			makeCluster(data, target);
-		}
-				
-		double acc_distance = 0;
-		double set_size = (int)(data.length*Constants.TRAIN_FRACTION);
-		for(int i = 0; i < set_size; i++) {
-			double [] coor = new double[dimensions.size()];
-			for(int d = 0;d < dimensions.size(); d++) {
-				coor[d] = dimensions.get(d).calculate(data[i]);
-			}
-			acc_distance += Math.pow(Arrays.euclideanDistance(coor, mu.get(classes.indexOf(target[i]) )),2 );
-		}
-		return Math.sqrt(acc_distance/set_size);
+	public double getTrainRootMeanSquaredDistanceToCentroid(Dataset data, String[] target) {
+		cluster(data, target);
+		return Math.sqrt(scan.getSquaredDistance()/scan.size());
 	}
 	
-	public double getTestRootMeanSquaredDistanceToCentroid(double [][] data, String[] target) {
-		if (covarianceMatrix == null) {
-			makeCluster(data, target);
-		}
+	public double getTestRootMeanSquaredDistanceToCentroid(Dataset data, String[] target) {
+		cluster(data, target);
 		
 		double acc_distance = 0;
-		double set_size = data.length - (int)(data.length*Constants.TRAIN_FRACTION);
-		for(int i = (int)(data.length*Constants.TRAIN_FRACTION); i < data.length; i++) {
-			double [] coor = new double[dimensions.size()];
-			for(int d = 0;d < dimensions.size(); d++) {
-				coor[d] = dimensions.get(d).calculate(data[i]);
-			}
-			acc_distance += Math.pow(Arrays.euclideanDistance(coor, mu.get(classes.indexOf(target[i]) )),2 );
+		int trainSize = conf.trainSize(data.length());
+		double set_size = data.length() - trainSize;
+		double [][] points = calculateAll(data, trainSize, data.length());
+		for(int i = 0; i < points.length; i++) {
+			acc_distance += Math.pow(Arrays.euclideanDistance(points[i], mu.get(classes.indexOf(target[trainSize + i]) )),2 );
 			}
 		return Math.sqrt(acc_distance/set_size);
 	}
 
-	public double getMeanDistanceBetweenCentroids(double [][] data, String[] target) {
-		if (covarianceMatrix == null) {
-			makeCluster(data, target);
-		}
+	public double getMeanDistanceBetweenCentroids(Dataset data, String[] target) {
+		cluster(data, target);
 		
 		double total_distance = 0;
 		for(int i = 0; i < mu.size(); i++) {
@@ -348,47 +662,143 @@ public class Tree implements Serializable{
 		return total_distance;
 	}
 
-	public void clean() {
+	/**
+	 * Returns true if the fitness on data was already calculated
+	 * @param data
+	 */
+	public boolean hasFitness(Dataset data) {
+		return fitnessData == data && !partial;
+	}
+
+	/**
+	 * Returns true if the evaluation on data was stopped, so getFitness
+	 * only returns an upper bound of the fitness
+	 * @param data
+	 */
+	public boolean hasFitnessBound(Dataset data) {
+		return fitnessData == data && partial;
+	}
+
+	/**
+	 * Returns the fitness, or its upper bound if the evaluation was stopped
+	 */
+	public double getFitness() {
+		return fitness;
+	}
+
+	/**
+	 * Keeps the fitness of this tree on data
+	 * @param data
+	 * @param fitness
+	 */
+	public void setFitness(Dataset data, double fitness) {
+		this.fitness = fitness;
+		partial = false;
+		fitnessData = data;
+	}
+
+	/**
+	 * Keeps an upper bound of the fitness of this tree on data, from an
+	 * evaluation that was stopped
+	 * @param data
+	 * @param bound
+	 */
+	public void setFitnessBound(Dataset data, double bound) {
+		fitness = bound;
+		partial = true;
+		fitnessData = data;
+	}
+
+	/**
+	 * Returns true if the dimensions of t are equal to the ones of this tree
+	 * @param t
+	 */
+	public boolean sameDimensions(Tree t) {
+		return dimensions.equals(t.dimensions);
+	}
+
+	/**
+	 * Reuses the clusters and the fitness already calculated for t,
+	 * a tree with the same dimensions and configuration, instead of
+	 * calculating them again. The pass over the train rows is copied,
+	 * so each tree continues its own
+	 * @param t
+	 */
+	public void copyEvaluation(Tree t) {
+		if(t.conf != conf || t.mu == null)
+			return;
+		program = t.program;
+		target = t.target;
+		map = t.map;
+		scan = t.scan.copy(this);
+		classes = t.classes;
+		stats = t.stats;
+		distanceModel = t.distanceModel;
+		mahalanobis = t.mahalanobis;
+		clusterData = t.clusterData;
+		Dataset data = t.fitnessData;
+		if(data != null) {
+			if(t.partial)
+				setFitnessBound(data, t.fitness);
+			else
+				setFitness(data, t.fitness);
+		}
+		mu = t.mu;
+	}
+
+	/**
+	 * Replaces the dimensions by the equal ones of the store, sharing
+	 * them with the other trees interned on it. The dimensions are not
+	 * changed after this, clean() works on a copy
+	 * @param store
+	 */
+	public void intern(NodeStore store) {
 		for(int i = 0; i < dimensions.size(); i++) {
-			dimensions.get(i).clean();
+			dimensions.set(i, store.intern(dimensions.get(i)));
 		}
+		interned = true;
 	}
 
-	public double getTrainRootMeanSquaredMHLNBDistanceToCentroid(double[][] data, String[] target) {
-		if (covarianceMatrix == null) {
-			makeCluster(data, target);
+	/**
+	 * Simplifies the dimensions, see Node.clean
+	 */
+	public void clean() {
+		if(interned) {
+			dimensions = cloneDimensions();
+			interned = false;
 		}
-				
-		double acc_distance = 0;
-		double set_size = (int)(data.length*Constants.TRAIN_FRACTION);
-		for(int i = 0; i < set_size; i++) {
-			double [] result = calculateAll(data[i]);
-			int index = classes.indexOf(target[i]);
-			double distance = Arrays.mahalanobisDistance(result,mu.get(index), covarianceMatrix.get(index));
-			acc_distance += Math.pow(distance,2);
+		for(int i = 0; i < dimensions.size(); i++) {
+			dimensions.get(i).clean();
 		}
-		return Math.sqrt(acc_distance/set_size);
+		size = -1;
+		fitnessData = null;
+		program = null;
+		mu = null;
+		mahalanobis = null;
+		clusterData = null;
+	}
+
+	public double getTrainRootMeanSquaredMHLNBDistanceToCentroid(Dataset data, String[] target) {
+		cluster(data, target);
+		return Math.sqrt(scan.getSquaredMHLNBDistance(mahalanobis())/scan.size());
 	}
 	
-	public double getTestRootMeanSquaredMHLNBDistanceToCentroid(double[][] data, String[] target) {
-		if (covarianceMatrix == null) {
-			makeCluster(data, target);
-		}
+	public double getTestRootMeanSquaredMHLNBDistanceToCentroid(Dataset data, String[] target) {
+		cluster(data, target);
+		DistanceModel mahalanobis = mahalanobis();
 				
 		double acc_distance = 0;
-		int set_size = (int)(data.length*Constants.TRAIN_FRACTION);
-		for(int i = set_size; i < data.length; i++) {
-			double [] result = calculateAll(data[i]);
-			double [] distances = calculateMHLNB(result);
-			acc_distance += Math.pow(distances[classes.indexOf(target[i])],2);
+		int set_size = conf.trainSize(data.length());
+		double [][] points = calculateAll(data, set_size, data.length());
+		for(int i = 0; i < points.length; i++) {
+			double distance = mahalanobis.distance(points[i], classes.indexOf(target[set_size + i]));
+			acc_distance += Math.pow(distance,2);
 		}
 		return Math.sqrt(acc_distance/set_size);
 	}
 
-	public double getMeanManhattanDistanceBetweenCentroids(double[][] data, String[] target) {
-		if (covarianceMatrix == null) {
-			makeCluster(data, target);
-		}
+	public double getMeanManhattanDistanceBetweenCentroids(Dataset data, String[] target) {
+		cluster(data, target);
 		
 		double total_distance = 0;
 		for(int i = 0; i < mu.size(); i++) {
@@ -401,20 +811,9 @@ public class Tree implements Serializable{
 		return total_distance;
 	}
 
-	public double getMeanManhattanDistanceToCentroids(double[][] data, String[] target) {
-		if (covarianceMatrix == null) {
-			makeCluster(data, target);
-		}
-				
-		double acc_distance = 0;
-		double set_size = (int)(data.length*Constants.TRAIN_FRACTION);
-		for(int i = 0; i < set_size; i++) {
-			double [] result = calculateAll(data[i]);
-			int index = classes.indexOf(target[i]);
-			double distance = Arrays.manhattanDistance(result,mu.get(index));
-			acc_distance += distance;
-		}
-		return Math.sqrt(acc_distance/set_size);
+	public double getMeanManhattanDistanceToCentroids(Dataset data, String[] target) {
+		cluster(data, target);
+		return Math.sqrt(scan.getManhattanDistance()/scan.size());
 	}
 
 	public double[] calculateEucDistances(double[] result) {
@@ -0,0 +1,103 @@
+package weka.classifiers.trees.m3gp.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import weka.classifiers.trees.m3gp.client.Configuration;
+import weka.classifiers.trees.m3gp.node.Node;
+import weka.classifiers.trees.m3gp.node.NodeCodec;
+
+/**
+ * Compact binary format of a tree, used to send trees to other processes:
+ * the number of dimensions, each dimension (NodeCodec), and the GO affinity
+ * of the tree when it has its own (PROBABILITY_ADAPTATION > 0).
+ * The clusters are not sent, the receiver calculates them again.
+ */
+public class TreeCodec {
+
+	/**
+	 * Writes the tree
+	 * @param out
+	 * @param t
+	 * @throws IOException
+	 */
+	public static void write(DataOutput out, Tree t) throws IOException {
+		ArrayList<Node> dimensions = t.getDimensions();
+		out.writeShort(dimensions.size());
+		for(Node n : dimensions) {
+			NodeCodec.write(out, n);
+		}
+
+		if(t.getConfiguration().getProbabilityAdaptation() > 0) {
+			double [] goa = t.getGOA();
+			out.writeByte(goa.length);
+			for(double d : goa)
+				out.writeDouble(d);
+		}else {
+			out.writeByte(0);
+		}
+	}
+
+	/**
+	 * Reads a tree written by write
+	 * @param in
+	 * @param conf configuration of the new tree
+	 * @return
+	 * @throws IOException
+	 */
+	public static Tree read(DataInput in, Configuration conf) throws IOException {
+		int size = in.readShort();
+		ArrayList<Node> dimensions = new ArrayList<Node>(size);
+		for(int i = 0; i < size; i++) {
+			dimensions.add(NodeCodec.read(in));
+		}
+
+		double [] goa = null;
+		int n = in.readByte();
+		if(n > 0) {
+			goa = new double[n];
+			for(int i = 0; i < n; i++)
+				goa[i] = in.readDouble();
+		}
+		return new Tree(dimensions, goa, conf);
+	}
+
+	/**
+	 * Returns the trees in the binary format: their number followed by each tree
+	 * @param trees
+	 * @throws IOException
+	 */
+	public static byte[] toBytes(Tree [] trees) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(trees.length);
+		for(Tree t : trees)
+			write(out, t);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads the trees written by toBytes
+	 * @param bytes
+	 * @param conf configuration of the new trees
+	 * @throws IOException
+	 */
+	public static Tree[] fromBytes(byte [] bytes, Configuration conf) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int n = in.readInt();
+		// each tree takes at least 3 bytes
+		if(n < 0 || n > bytes.length / 3)
+			throw new IOException("Invalid number of trees: " + n);
+		Tree [] trees = new Tree[n];
+		for(int i = 0; i < trees.length; i++)
+			trees[i] = read(in, conf);
+		return trees;
+	}
+}
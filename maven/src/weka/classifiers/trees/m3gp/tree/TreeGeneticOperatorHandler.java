@@ -1,24 +1,94 @@
 package weka.classifiers.trees.m3gp.tree;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
-import weka.classifiers.trees.m3gp.client.Constants;
+import weka.classifiers.trees.m3gp.client.Configuration;
+import weka.classifiers.trees.m3gp.metrics.Metrics;
 import weka.classifiers.trees.m3gp.node.Node;
 import weka.classifiers.trees.m3gp.node.NodeHandler;
+import weka.classifiers.trees.m3gp.node.NodeStore;
 import weka.classifiers.trees.m3gp.population.Population;
 import weka.classifiers.trees.m3gp.population.PopulationFunctions;
+import weka.classifiers.trees.m3gp.population.Selection;
 import weka.classifiers.trees.m3gp.util.Arrays;
+import weka.classifiers.trees.m3gp.util.Dataset;
 import weka.classifiers.trees.m3gp.util.Mat;
 
 public class TreeGeneticOperatorHandler {
 	
-	public static Tree[] geneticOperation(Tree[] population, int tournamentSize, String[] term, double [][] data, String [] target){
+	/**
+	 * Selects three parents by tournament and breeds them
+	 * @param selection ranking of the current generation
+	 * @param term
+	 * @param data
+	 * @param target
+	 * @param conf
+	 * @param bound fitness a descendent must reach to be kept, see breed
+	 * @param store store of the trees of the current generation, see breed
+	 * @param evaluations fitness evaluations of the train, see breed
+	 * @return the descendents
+	 */
+	public static Tree[] geneticOperation(Selection selection, String[] term, Dataset data, String [] target, Configuration conf, double bound, NodeStore store, LongAdder evaluations){
+		long time = System.nanoTime();
 		Tree[] p = new Tree[3];
-		p[0] = changeGlobalValue(null, -1, -1, data, target,1,population,tournamentSize);
-		p[1] = changeGlobalValue(null, -1, -1, data, target,1,population,tournamentSize);
-		p[2] = changeGlobalValue(null, -1, -1, data, target,1,population,tournamentSize);
+		p[0] = selection.tournament();
+		p[1] = selection.tournament();
+		p[2] = selection.tournament();
+		Metrics.SELECTION_TIME.add(System.nanoTime() - time);
+
+		return breed(p, term, data, target, conf, selection, bound, store, evaluations);
+	}
 
-		int operation = roulette(p[0].getGOA());
+	/**
+	 * Applies a genetic operator, chosen by the GO affinity of the first
+	 * parent, to parents that were already selected, and updates the
+	 * GO affinity with the fitness of the descendents
+	 * @param p three parents
+	 * @param term
+	 * @param data
+	 * @param target
+	 * @param conf
+	 * @return the descendents
+	 */
+	public static Tree[] breed(Tree[] p, String[] term, Dataset data, String [] target, Configuration conf){
+		return breed(p, term, data, target, conf, null);
+	}
+
+	/**
+	 * Like breed, but the descendents equal to a tree of the current
+	 * generation reuse its evaluation
+	 * @param p three parents
+	 * @param term
+	 * @param data
+	 * @param target
+	 * @param conf
+	 * @param selection ranking of the current generation, may be null
+	 * @return the descendents
+	 */
+	public static Tree[] breed(Tree[] p, String[] term, Dataset data, String [] target, Configuration conf, Selection selection){
+		return breed(p, term, data, target, conf, selection, Double.NEGATIVE_INFINITY, null, null);
+	}
+
+	/**
+	 * Like breed, but the evaluation of the descendents that can not reach
+	 * bound, nor the fitness of the parents, is stopped early (racing), so
+	 * their fitness is only an upper bound, smaller than bound. The
+	 * descendents are interned on store, where they are compared with the
+	 * trees of the current generation by reference
+	 * @param p three parents
+	 * @param term
+	 * @param data
+	 * @param target
+	 * @param conf
+	 * @param selection ranking of the current generation, may be null
+	 * @param bound fitness a descendent must reach to be kept
+	 * @param store store of the trees of the current generation, may be null
+	 * @param evaluations counter of the fitness evaluations of the train, may be null
+	 * @return the descendents
+	 */
+	public static Tree[] breed(Tree[] p, String[] term, Dataset data, String [] target, Configuration conf, Selection selection, double bound, NodeStore store, LongAdder evaluations){
+		int operation = p[0].pickGeneticOperator();
 
 		Tree [] desc = null;
 		switch(operation){
@@ -54,27 +124,36 @@ public class TreeGeneticOperatorHandler {
 }
 
 
-		for( Tree t : desc){
-			PopulationFunctions.fitnessTrain(t, data, target);
-		}
-
 		double parents = 0;
 
 		for(int i = 0; i < desc.length; i++) {
-			parents += PopulationFunctions.fitnessTrain(p[i], data, target);
+			parents += PopulationFunctions.fitnessTrain(p[i], data, target, evaluations);
 		}
 		parents /= desc.length;
 
+		// the GO affinity only needs to know if a descendent is better than the parents
+		double [] fitness = new double[desc.length];
+		for(int i = 0; i < desc.length; i++){
+			Tree t = desc[i];
+			t.clean();
+			if(store != null)
+				t.intern(store);
+			Tree known = evaluated(t, p, selection);
+			if(known != null)
+				t.copyEvaluation(known);
+			fitness[i] = PopulationFunctions.fitnessTrain(t, data, target, Math.min(bound, parents), evaluations);
+		}
 
 
 
-		switch(Constants.PROBABILITY_ADAPTATION) {
+
+		switch(conf.getProbabilityAdaptation()) {
 		case 1:
 			for(int i = 0; i < desc.length; i++) {
-				if ( PopulationFunctions.fitnessTrain(desc[i], data, target) > parents) {
-					desc[i].getGOA()[operation] = 1 - ( (1 - desc[i].getGOA()[operation]) * Constants.LEARNING_T );
+				if ( fitness[i] > parents) {
+					desc[i].getGOA()[operation] = 1 - ( (1 - desc[i].getGOA()[operation]) * conf.getLearningT() );
 				}else {
-					desc[i].getGOA()[operation] *= Constants.LEARNING_T;
+					desc[i].getGOA()[operation] *= conf.getLearningT();
 				}
 
 				double [] np = new double [desc[i].getGOA().length];
@@ -100,7 +179,7 @@ public class TreeGeneticOperatorHandler {
 			
 		case 2:
 			for(int i = 0; i < desc.length; i++) {
-				if ( PopulationFunctions.fitnessTrain(desc[i], data, target) > parents) {
+				if ( fitness[i] > parents) {
 					desc[i].incGOA(operation);
 				}else {
 					desc[i].decGOA(operation);
@@ -109,42 +188,53 @@ public class TreeGeneticOperatorHandler {
 			break;
 			
 		case -2:
-			changeGlobalValue(desc, parents, operation, data, target,2,null,-1);
+			changeGlobalValue(fitness, parents, operation, conf);
 			break;
 		}
 
 		return desc;
 	}
 	
-	private synchronized static Tree changeGlobalValue(Tree[] desc, double parents_fit, int operation, double[][]data, String[]target, int method, Tree[]population, int tournamentSize) {
-		switch(method) {
-		case 1: // obter dois descendentes
-			return PopulationFunctions.tournament(population, tournamentSize);
-		case 2: // actualizar valores
-			for(int i = 0; i < desc.length; i++) {
-				if ( PopulationFunctions.fitnessTrain(desc[i], data, target) > parents_fit) {
-					Population.goAffinity[operation] = 1 - ( (1 - Population.goAffinity[operation]) * Constants.LEARNING_T );
-				}else {
-					Population.goAffinity[operation] *= Constants.LEARNING_T;
-				}
+	/**
+	 * Returns a parent or a tree of the current generation equal to the
+	 * descendent t (e.g. the unchanged descendents of SWAP-DIM and of
+	 * REM-DIM on one dimension), null if there is none
+	 */
+	private static Tree evaluated(Tree t, Tree[] p, Selection selection) {
+		for(Tree parent : p) {
+			if(t.sameDimensions(parent))
+				return parent;
+		}
+		return selection == null ? null : selection.find(t);
+	}
 
-				double [] np = Population.goAffinity;
-				for(int ii = 0; ii< np.length; ii++) {
-					np[ii] -=0.05;
-					if(np[ii] < 0) {
-						np[ii] = 0;
-					}
-				}
-				Population.goAffinity = Arrays.normalize(np);
-				np = Population.goAffinity;
-				for(int ii = 0; ii< np.length; ii++) {
-					np[ii] *= 1-0.05*np.length;
-					np[ii] += 0.05;
+	/**
+	 * Updates the global GO affinity with the fitness of the descendents
+	 */
+	private synchronized static void changeGlobalValue(double[] fitness, double parents_fit, int operation, Configuration conf) {
+		// the vector is read by the other threads without locking,
+		// so the new values are calculated on a copy and then published
+		double [] np = Arrays.copy(Population.goAffinity);
+		for(int i = 0; i < fitness.length; i++) {
+			if ( fitness[i] > parents_fit) {
+				np[operation] = 1 - ( (1 - np[operation]) * conf.getLearningT() );
+			}else {
+				np[operation] *= conf.getLearningT();
+			}
+
+			for(int ii = 0; ii< np.length; ii++) {
+				np[ii] -=0.05;
+				if(np[ii] < 0) {
+					np[ii] = 0;
 				}
 			}
-			break;
+			np = Arrays.normalize(np);
+			for(int ii = 0; ii< np.length; ii++) {
+				np[ii] *= 1-0.05*np.length;
+				np[ii] += 0.05;
+			}
 		}
-		return null;
+		Population.setGOAffinity(np);
 	}
 
 	/**
@@ -182,7 +272,7 @@ public class TreeGeneticOperatorHandler {
 	 * @param target
 	 * @return
 	 */
-	public static Tree[] crossover1(Tree t1, Tree t2, double[][] data, String[] target){
+	public static Tree[] crossover1(Tree t1, Tree t2, Dataset data, String[] target){
 		ArrayList<Node> dim1 = t1.cloneDimensions();
 		ArrayList<Node> dim2 = t2.cloneDimensions();
 
@@ -192,7 +282,7 @@ public class TreeGeneticOperatorHandler {
 		dim1.set(index1, dim2.get(index2));
 		dim2.set(index2, n);
 
-		return new Tree[] {new Tree(dim1, t1.getGOA()), new Tree(dim2, t2.getGOA())};
+		return new Tree[] {new Tree(dim1, t1), new Tree(dim2, t2)};
 	}
 
 	/**
@@ -203,7 +293,7 @@ public class TreeGeneticOperatorHandler {
 	 * @param target
 	 * @return
 	 */
-	public static Tree[] crossover2(Tree t1, Tree t2, double[][] data, String[] target){
+	public static Tree[] crossover2(Tree t1, Tree t2, Dataset data, String[] target){
 		ArrayList<Node> dim1 = t1.cloneDimensions();
 		ArrayList<Node> dim2 = t2.cloneDimensions();
 
@@ -213,7 +303,7 @@ public class TreeGeneticOperatorHandler {
 		Node r2 = NodeHandler.randomNode(p2);
 		NodeHandler.swap(r1,r2);
 
-		return new Tree[] {new Tree(dim1, t1.getGOA()), new Tree(dim2, t2.getGOA())};
+		return new Tree[] {new Tree(dim1, t1), new Tree(dim2, t2)};
 	}
 
 	/**
@@ -224,14 +314,14 @@ public class TreeGeneticOperatorHandler {
 	 * @param target
 	 * @return
 	 */
-	public static Tree[] mutation1(Tree t1, String[] term, double[][] data, String[] target){
+	public static Tree[] mutation1(Tree t1, String[] term, Dataset data, String[] target){
 		ArrayList<Node> dim = t1.cloneDimensions();
 
 		Node p1 = dim.get( Mat.random(dim.size()) );
 		Node r1 = NodeHandler.randomNode(p1);
-		NodeHandler.redirect(r1, new Node(term,Constants.MAX_DEPTH));
+		NodeHandler.redirect(r1, new Node(term,t1.getConfiguration().getMaxDepth()));
 
-		return new Tree[] {new Tree(dim, t1.getGOA())};
+		return new Tree[] {new Tree(dim, t1)};
 	}
 
 	/**
@@ -242,12 +332,12 @@ public class TreeGeneticOperatorHandler {
 	 * @param target
 	 * @return
 	 */
-	public static Tree[] mutation2(Tree t1, String[] term, double[][] data, String[] target){
+	public static Tree[] mutation2(Tree t1, String[] term, Dataset data, String[] target){
 		ArrayList<Node> dim = t1.cloneDimensions();
 
-		dim.add(new Node(term,Constants.MAX_DEPTH));
+		dim.add(new Node(term,t1.getConfiguration().getMaxDepth()));
 
-		return new Tree[] {new Tree(dim, t1.getGOA())};
+		return new Tree[] {new Tree(dim, t1)};
 	}
 
 	/**
@@ -258,13 +348,13 @@ public class TreeGeneticOperatorHandler {
 	 * @param target
 	 * @return
 	 */
-	public static Tree[] mutation3(Tree t1, String[] term, double[][] data, String[] target){
+	public static Tree[] mutation3(Tree t1, String[] term, Dataset data, String[] target){
 		ArrayList<Node> dim = t1.cloneDimensions();
 
 		if(dim.size()>1)
 			dim.remove( Mat.random(dim.size()) );
 
-		return new Tree[] {new Tree(dim, t1.getGOA())};
+		return new Tree[] {new Tree(dim, t1)};
 	}
 
 	
@@ -285,7 +375,7 @@ public class TreeGeneticOperatorHandler {
 
 		r1.changeValue(term);
 
-		return new Tree[] {new Tree(dim1, t1.getGOA())};
+		return new Tree[] {new Tree(dim1, t1)};
 	}
 
 	private static Tree[] mutation5(Tree t1, String[] term) {
@@ -298,7 +388,7 @@ public class TreeGeneticOperatorHandler {
 
 		r1.turnTerminal(term);
 
-		return new Tree[] {new Tree(dim1, t1.getGOA())};
+		return new Tree[] {new Tree(dim1, t1)};
 	}
 
 	private static Tree[] mutation6(Tree t1, String[] term) {
@@ -309,7 +399,7 @@ public class TreeGeneticOperatorHandler {
 
 		n.turnTerminal(term);
 
-		return new Tree[] {new Tree(dim1, t1.getGOA())};
+		return new Tree[] {new Tree(dim1, t1)};
 	}
 
 	private static Tree[] mutation7(Tree t1, String[] term) {
@@ -323,11 +413,11 @@ public class TreeGeneticOperatorHandler {
 
 		n.turnTerminal(term);
 
-		return new Tree[] {new Tree(dim1, t1.getGOA())};
+		return new Tree[] {new Tree(dim1, t1)};
 }
 	
 	
-	public static Tree[] crossover3(Tree t1, Tree t2, Tree t3, double[][] data, String[] target){
+	public static Tree[] crossover3(Tree t1, Tree t2, Tree t3, Dataset data, String[] target){
 		ArrayList<Node> dim1 = t1.cloneDimensions();
 		ArrayList<Node> dim2 = t2.cloneDimensions();
 		ArrayList<Node> dim3 = t3.cloneDimensions();
@@ -341,7 +431,7 @@ public class TreeGeneticOperatorHandler {
 		NodeHandler.swap(r1,r2);
 		NodeHandler.swap(r2,r3);
 
-		return new Tree[] {new Tree(dim1, t1.getGOA()), new Tree(dim2, t2.getGOA()), new Tree(dim3, t3.getGOA())};
+		return new Tree[] {new Tree(dim1, t1), new Tree(dim2, t2), new Tree(dim3, t3)};
 }
 	
 	
@@ -352,17 +442,4 @@ public class TreeGeneticOperatorHandler {
 	
 	
 
-	private static int roulette(double [] v){
-		double acc = 0;
-		for (double d : v){
-			acc += d;
-		}
-		double pick = Math.random()*acc;
-		for (int i = 0; i < v.length; i++){
-			if(pick <= v[i])
-				return i;
-			pick -= v[i];
-		}
-		return 1/0;
-	}
 }
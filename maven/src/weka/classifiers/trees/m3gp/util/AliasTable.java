@@ -0,0 +1,75 @@
+package weka.classifiers.trees.m3gp.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Walker's alias method: after O(n) preparation, picks an index with
+ * probability proportional to its weight in O(1), using one random int
+ * and one random double, and without allocating anything.
+ * Used for the roulette of the genetic operators.
+ */
+public class AliasTable {
+	// probability of keeping the column picked, otherwise alias is used
+	private final double [] prob;
+	private final int [] alias;
+
+	/**
+	 * Prepares the table (Vose's version)
+	 * @param weights non negative weights, not necessarily normalized
+	 * @throws IllegalArgumentException if the weights have no positive sum
+	 */
+	public AliasTable(double [] weights) {
+		int n = weights.length;
+		prob = new double[n];
+		alias = new int[n];
+
+		double sum = 0;
+		for(double w : weights)
+			sum += w;
+		if(!(sum > 0) || Double.isInfinite(sum))
+			throw new IllegalArgumentException("The weights must have a positive sum: " + Arrays.arrayToString(weights));
+
+		// scaled so the mean is 1; the columns under 1 are filled by the ones over 1
+		double [] scaled = new double[n];
+		int [] small = new int[n];
+		int [] large = new int[n];
+		int ns = 0, nl = 0;
+		for(int i = 0; i < n; i++) {
+			scaled[i] = weights[i] * n / sum;
+			if(scaled[i] < 1)
+				small[ns++] = i;
+			else
+				large[nl++] = i;
+		}
+
+		while(ns > 0 && nl > 0) {
+			int s = small[--ns];
+			int l = large[--nl];
+			prob[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = (scaled[l] + scaled[s]) - 1;
+			if(scaled[l] < 1)
+				small[ns++] = l;
+			else
+				large[nl++] = l;
+		}
+		// what is left is 1, except for rounding errors
+		while(nl > 0)
+			prob[large[--nl]] = 1;
+		while(ns > 0)
+			prob[small[--ns]] = 1;
+	}
+
+	/**
+	 * Returns a random index, with probability proportional to its weight
+	 */
+	public int sample() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int i = random.nextInt(prob.length);
+		return random.nextDouble() < prob[i] ? i : alias[i];
+	}
+
+	public int size() {
+		return prob.length;
+	}
+}
@@ -20,35 +20,13 @@ public class Arrays {
 	/**
 	 * Calcula a distancia de mahalanobis de x com o cluster
 	 * DM(x) = (x - mu)^T * S^-1 * (x-mu)
+	 * Factors S every call, the trees keep the Cholesky factor of each class
 	 * @param x
 	 * @param c
 	 * @return
 	 */
 	public static double mahalanobisDistance(double [] x,double [] mu, double[][] s) {
-		// DM(x) = (x - mu)^T * S^-1 * (x-mu)
-		// DM(x) = a * bInv * c
-
-		//Calcula a e c
-		double[][]a= new double[1][x.length];
-		double[][]c= new double[x.length][1];
-		for(int i= 0; i< x.length; i++){
-			a[0][i] = x[i]-mu[i];
-			c[i][0] = x[i]-mu[i];
-		}
-		
-
-		double [][] sInv = 	Matrix.inverseMatrix(s);
-		if ( sInv[0][0] == Double.NaN || (sInv[0][0]+"").equals("NaN") || sInv[0][0] == Double.POSITIVE_INFINITY || sInv[0][0] == Double.NEGATIVE_INFINITY) {
-			sInv = Matrix.moorepenroseInverseMatrix(s);
-			if(sInv == null) {
-				return euclideanDistance(x,mu);
-			}
-		}
-
-		double [][] a_sInv = Matrix.multiply(a,sInv);
-		double [][] result = Matrix.multiply(a_sInv, c);
-
-		return Math.sqrt(result[0][0]);
+		return new Cholesky(s).mahalanobisDistance(x, mu);
 	}
 
 	/**
@@ -72,6 +50,36 @@ public class Arrays {
 		}
 	}
 
+	/**
+	 * Returns the indexes of a sorted by the values in a, using a bottom-up
+	 * (stable) merge sort, without changing a
+	 * @param a array with values
+	 */
+	public static int[] sortedIndexes(double[] a){
+		int n = a.length;
+		int [] idx = new int[n];
+		int [] buf = new int[n];
+		for(int i = 0; i < n; i++)
+			idx[i] = i;
+
+		for(int width = 1; width < n; width *= 2){
+			for(int min = 0; min < n; min += 2*width){
+				int mean = Math.min(min+width, n), max = Math.min(min+2*width, n);
+				int i = min, j = mean;
+				for(int k = min; k < max; k++){
+					if(i<mean && (j >= max || a[idx[i]] <= a[idx[j]]))
+						buf[k] = idx[i++];
+					else
+						buf[k] = idx[j++];
+				}
+			}
+			int [] swap = idx;
+			idx = buf;
+			buf = swap;
+		}
+		return idx;
+	}
+
 	/**
 	 * Uses merge sort to sort both arrays by the values in a
 	 * @param o object array
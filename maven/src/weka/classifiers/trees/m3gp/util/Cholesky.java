@@ -0,0 +1,128 @@
+package weka.classifiers.trees.m3gp.util;
+
+import java.io.Serializable;
+
+import weka.classifiers.trees.m3gp.metrics.Metrics;
+
+/**
+ * Cholesky factorization S + lambda*I = L * L^T of a covariance matrix.
+ * Covariance matrices are symmetric positive semi-definite, so instead of
+ * inverting them the Mahalanobis distance solves L * y = x - mu and
+ * returns |y|. If S is not positive definite, a ridge lambda (relative to
+ * the mean variance) is added and increased until the factorization works.
+ * A matrix without variance can not be factored and the distances become
+ * euclidean, like when the pseudo-inverse did not exist.
+ */
+public class Cholesky implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	// ridge added to the diagonal, relative to the mean variance
+	private static final double MIN_RIDGE = 1e-10;
+	private static final double MAX_RIDGE = 1e-2;
+
+	// y of the forward substitution, per thread since the factors are shared
+	// by the threads that evaluate the same tree; it only grows, to the most dimensions
+	private static final ThreadLocal<double[]> SCRATCH = new ThreadLocal<double[]>();
+
+	private int n;
+	private double [] l; // flat n x n, lower triangle
+	private double ridge = 0;
+
+	/**
+	 * Factors the covariance matrix s
+	 * @param s symmetric n x n matrix
+	 */
+	public Cholesky(double [][] s) {
+		Metrics.MATRIX_INVERSIONS.increment();
+		n = s.length;
+		l = new double[n*n];
+
+		double scale = 0;
+		for(int i = 0; i < n; i++)
+			scale += s[i][i];
+		scale /= n;
+
+		if(!(scale > 0) || Double.isInfinite(scale)) {
+			l = null;
+			return;
+		}
+
+		if(factor(s, 0))
+			return;
+		for(double r = MIN_RIDGE; r <= MAX_RIDGE; r *= 100) {
+			ridge = r * scale;
+			if(factor(s, ridge))
+				return;
+		}
+		l = null;
+	}
+
+	/**
+	 * Calculates L for s + lambda*I
+	 * @return false if a pivot is not positive
+	 */
+	private boolean factor(double [][] s, double lambda) {
+		for(int j = 0; j < n; j++) {
+			int rj = j*n;
+			double d = s[j][j] + lambda;
+			for(int k = 0; k < j; k++)
+				d -= l[rj+k] * l[rj+k];
+			if(!(d > 0))
+				return false;
+			d = Math.sqrt(d);
+			l[rj+j] = d;
+
+			for(int i = j+1; i < n; i++) {
+				int ri = i*n;
+				double acc = s[i][j];
+				for(int k = 0; k < j; k++)
+					acc -= l[ri+k] * l[rj+k];
+				l[ri+j] = acc / d;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the matrix could be factored
+	 */
+	public boolean isFactored() {
+		return l != null;
+	}
+
+	/**
+	 * Returns the ridge added to the diagonal, 0 if none was needed
+	 */
+	public double getRidge() {
+		return ridge;
+	}
+
+	/**
+	 * Returns the mahalanobis distance sqrt((x-mu)^T * S^-1 * (x-mu)),
+	 * using forward substitution on L. Without factorization, returns the
+	 * euclidean distance
+	 * @param x
+	 * @param mu
+	 * @return
+	 */
+	public double mahalanobisDistance(double [] x, double [] mu) {
+		if(l == null)
+			return Arrays.euclideanDistance(x, mu);
+
+		double [] y = SCRATCH.get();
+		if(y == null || y.length < n) {
+			y = new double[n];
+			SCRATCH.set(y);
+		}
+		double dist = 0;
+		for(int i = 0; i < n; i++) {
+			int ri = i*n;
+			double acc = x[i] - mu[i];
+			for(int k = 0; k < i; k++)
+				acc -= l[ri+k] * y[k];
+			y[i] = acc / l[ri+i];
+			dist += y[i] * y[i];
+		}
+		return Math.sqrt(dist);
+	}
+}
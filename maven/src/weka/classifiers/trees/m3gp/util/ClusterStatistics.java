@@ -0,0 +1,117 @@
+package weka.classifiers.trees.m3gp.util;
+
+import java.io.Serializable;
+
+/**
+ * Single-pass accumulator of the count, mean and covariance of the points
+ * of each class (Welford's algorithm), so the points of each cluster never
+ * need to be stored. Only the upper triangle of each co-moment matrix is
+ * updated.
+ */
+public class ClusterStatistics implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	private int dims;
+	private int [] count;
+	private double [][] mean;
+	private double [][] comoment; // flat dims x dims, upper triangle
+
+	// difference to the mean before the update
+	private transient double [] delta;
+
+	/**
+	 * Constructor
+	 * @param classes number of classes
+	 * @param dims number of dimensions of the points
+	 */
+	public ClusterStatistics(int classes, int dims) {
+		this.dims = dims;
+		count = new int[classes];
+		mean = new double[classes][dims];
+		comoment = new double[classes][dims*dims];
+	}
+
+	/**
+	 * Adds a point to the cluster of class c
+	 * @param c
+	 * @param x
+	 */
+	public void add(int c, double [] x) {
+		if(delta == null)
+			delta = new double[dims];
+
+		int n = ++count[c];
+		double [] mu = mean[c];
+		for(int i = 0; i < dims; i++) {
+			delta[i] = x[i] - mu[i];
+			mu[i] += delta[i] / n;
+		}
+
+		double [] m2 = comoment[c];
+		for(int i = 0; i < dims; i++) {
+			double di = delta[i];
+			int row = i*dims;
+			for(int j = i; j < dims; j++) {
+				// delta_i * (x_j - new mean_j)
+				m2[row+j] += di * (x[j] - mu[j]);
+			}
+		}
+	}
+
+	public int numClasses() {
+		return count.length;
+	}
+
+	public int numDimensions() {
+		return dims;
+	}
+
+	/**
+	 * Returns the number of points of class c
+	 * @param c
+	 */
+	public int getCount(int c) {
+		return count[c];
+	}
+
+	/**
+	 * Returns the mean (centroid) of the points of class c
+	 * @param c
+	 */
+	public double[] getMean(int c) {
+		return mean[c];
+	}
+
+	/**
+	 * Returns the variance of each dimension of the points of class c,
+	 * normalized by the number of points
+	 * @param c
+	 */
+	public double[] getVariance(int c) {
+		double [] var = new double[dims];
+		double [] m2 = comoment[c];
+		int n = Math.max(count[c], 1);
+		for(int i = 0; i < dims; i++) {
+			var[i] = m2[i*dims+i] / n;
+		}
+		return var;
+	}
+
+	/**
+	 * Returns the covariance matrix of the points of class c,
+	 * normalized by the number of points
+	 * @param c
+	 */
+	public double[][] getCovariance(int c) {
+		double [][] cov = new double[dims][dims];
+		double [] m2 = comoment[c];
+		int n = Math.max(count[c], 1);
+		for(int i = 0; i < dims; i++) {
+			for(int j = i; j < dims; j++) {
+				cov[i][j] = m2[i*dims+j] / n;
+				cov[j][i] = cov[i][j];
+			}
+		}
+		return cov;
+	}
+}
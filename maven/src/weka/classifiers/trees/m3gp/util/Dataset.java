@@ -0,0 +1,113 @@
+package weka.classifiers.trees.m3gp.util;
+
+import java.io.Serializable;
+
+/**
+ * Rows of a dataset (or of a projection of it), kept either in double or
+ * in single precision. In single precision only the float copy is kept,
+ * so the dataset takes half the memory.
+ *
+ * The trees cache their evaluation by the identity of the dataset, so
+ * each dataset must be created once and reused.
+ */
+public class Dataset implements Serializable{
+	private static final long serialVersionUID = 1L;
+
+	// the rows, one of them is null
+	private final double [][] values;
+	private final float [][] singleValues;
+
+	/**
+	 * Wraps the rows, converting them if singlePrecision
+	 * @param values
+	 * @param singlePrecision
+	 */
+	public Dataset(double [][] values, boolean singlePrecision) {
+		if(singlePrecision) {
+			singleValues = new float[values.length][];
+			for(int i = 0; i < values.length; i++) {
+				float [] row = new float[values[i].length];
+				for(int j = 0; j < row.length; j++)
+					row[j] = (float) values[i][j];
+				singleValues[i] = row;
+			}
+			this.values = null;
+		}else {
+			this.values = values;
+			singleValues = null;
+		}
+	}
+
+	/**
+	 * Wraps rows in single precision
+	 * @param singleValues
+	 */
+	public Dataset(float [][] singleValues) {
+		this.values = null;
+		this.singleValues = singleValues;
+	}
+
+	/**
+	 * Returns the number of rows
+	 */
+	public int length() {
+		return values != null ? values.length : singleValues.length;
+	}
+
+	public boolean isSinglePrecision() {
+		return singleValues != null;
+	}
+
+	/**
+	 * Returns the rows, null in single precision
+	 */
+	public double[][] getValues() {
+		return values;
+	}
+
+	/**
+	 * Returns the rows, null in double precision
+	 */
+	public float[][] getSingleValues() {
+		return singleValues;
+	}
+
+	/**
+	 * Returns row i, which in single precision is written on buffer
+	 * @param i
+	 * @param buffer at least as long as the row
+	 */
+	public double[] getRow(int i, double [] buffer) {
+		if(values != null)
+			return values[i];
+		float [] row = singleValues[i];
+		for(int j = 0; j < row.length; j++)
+			buffer[j] = row[j];
+		return buffer;
+	}
+
+	/**
+	 * Returns row i, on a new array in single precision
+	 * @param i
+	 */
+	public double[] getRow(int i) {
+		return values != null ? values[i] : getRow(i, new double[singleValues[i].length]);
+	}
+
+	/**
+	 * Returns a new dataset with the rows at the indexes, shared with this one
+	 * @param indexes
+	 */
+	public Dataset select(int [] indexes) {
+		if(values != null) {
+			double [][] rows = new double[indexes.length][];
+			for(int i = 0; i < indexes.length; i++)
+				rows[i] = values[indexes[i]];
+			return new Dataset(rows, false);
+		}
+		float [][] rows = new float[indexes.length][];
+		for(int i = 0; i < indexes.length; i++)
+			rows[i] = singleValues[indexes[i]];
+		return new Dataset(rows);
+	}
+}
@@ -2,50 +2,57 @@ package weka.classifiers.trees.m3gp.util;
 
 import java.util.ArrayList;
 
+import weka.classifiers.trees.m3gp.metrics.Metrics;
+
 public class Matrix {	
+	// size of the tiles used by the blocked kernels
+	private static final int BLOCK = 64;
+
+	/**
+	 * Moore-Penrose pseudo-inverse, using a full rank Cholesky factorization
+	 * (Courrieu, 2005). The products are done on flat row-major matrices
+	 * with the fused kernels, so no transpose is ever materialized
+	 * @param g
+	 * @return the pseudo-inverse or null if g has rank 0
+	 */
 	public static double[][] moorepenroseInverseMatrix(double [][] g) {
-		int r, m = g.length-1, n = g[0].length-1;
-		double [][] a, diagA, l;
-		double tol;
-		boolean transpose = false;
-
-		// Transpose if m < n
-		if (m < n){
-			transpose = true;
-			a = multiply(g,transpose(g));
-			n = m;
-		}else {
-			a = multiply(transpose(g),g);
+		Metrics.MATRIX_INVERSIONS.increment();
+		int rows = g.length, cols = g[0].length;
+		double [] gf = toFlat(g);
+
+		// Transpose if rows < cols
+		boolean transpose = rows < cols;
+		int n = transpose ? rows : cols;
+		double [] a = new double[n*n];
+		if (transpose)
+			multiplyTransposeB(gf, gf, a, rows, cols, rows);
+		else
+			multiplyTransposeA(gf, gf, a, rows, cols, cols);
+
+		// Minimum value of the diagonal bigger than 0
+		double tol = a[0];
+		for(int i = 0; i < n; i++) {
+			if(a[i*n+i] < tol && a[i*n+i] > 0)
+				tol = a[i*n+i];
 		}
+		tol = Math.max(tol*Math.pow(10, -9), Math.pow(10, -9));
 
 		// Full rank Cholesky factorization of A
-		diagA = diagonal(a);
-		tol = min(diagA, 0)*Math.pow(10, -9);
-		tol = Math.max(tol, Math.pow(10, -9));
-		l = fill(a.length, 0);
-		r=-1;
-		for(int k = 0; k <= n; k++) {
-			//System.out.println(r);
+		double [] l = new double[n*n];
+		int r = -1;
+		for(int k = 0; k < n; k++) {
 			r++;
-			double [][] a1,l1,l2,lsect;
-			a1 = section(a,new int[] {k,n,k,k});
-			// Note: for r=0, the subtracted vector is zero
-			if(r>0) {
-				//System.out.println("k = " + k+ ", r = "+r);
-				l1 = section(l,new int[] {k,n,0,r});
-				l2 = transpose(section(l,new int[] {k,k,0,r}));
-				lsect = subtract(a1,multiply(l1,l2));
-			}else {
-				lsect = a1;
+			for(int i = k; i < n; i++) {
+				double acc = a[i*n+k];
+				for(int j = 0; j < r; j++) {
+					acc -= l[i*n+j] * l[k*n+j];
+				}
+				l[i*n+r] = acc;
 			}
-			//System.out.println(k + " "+ n);
-			copyTo(lsect, l,new int[] {k,r});
-			if(l[k][r]>tol) {
-				l[k][r] = Math.sqrt(l[k][r]);
-				if (k < n){
-					for(int yi = k+1; yi <= n; yi++) {
-						l[yi][r] /= l[k][r];
-					}
+			if(l[k*n+r] > tol) {
+				l[k*n+r] = Math.sqrt(l[k*n+r]);
+				for(int i = k+1; i < n; i++) {
+					l[i*n+r] /= l[k*n+r];
 				}
 			}else {
 				r--;
@@ -54,49 +61,222 @@ public class Matrix {
 		if(r==-1) {
 			return null;
 		}
-		l = section(l, new int[] {0,l.length-1,0,r});
-		double [][] y =inverseMatrix(multiply(transpose(l),l));
-		double [][] ret;
-		if (transpose)
-			ret = multiply(multiply(multiply(multiply(transpose(g),l),y),y),transpose(l));
-		else
-			ret = multiply(multiply(multiply(multiply(l,y),y),transpose(l)),transpose(g));
 
-		return ret;
-	}//TODO testar
+		// L = L(:, 0:r)
+		int rank = r+1;
+		double [] lr = new double[n*rank];
+		for(int i = 0; i < n; i++) {
+			System.arraycopy(l, i*n, lr, i*rank, rank);
+		}
+
+		// M = inv(L^T * L)
+		double [] ltl = new double[rank*rank];
+		multiplyTransposeA(lr, lr, ltl, n, rank, rank);
+		double [] y = toFlat(inverseMatrix(fromFlat(ltl, rank, rank)));
+		double [] yy = new double[rank*rank];
+		multiply(y, y, yy, rank, rank, rank);
+
+		double [] ret = new double[cols*rows];
+		if (transpose) {
+			// G^T * L * M * M * L^T
+			double [] gl = new double[cols*rank];
+			multiplyTransposeA(gf, lr, gl, rows, cols, rank);
+			double [] gly = new double[cols*rank];
+			multiply(gl, yy, gly, cols, rank, rank);
+			multiplyTransposeB(gly, lr, ret, cols, rank, rows);
+		}else {
+			// L * M * M * L^T * G^T
+			double [] ly = new double[cols*rank];
+			multiply(lr, yy, ly, cols, rank, rank);
+			double [] lyl = new double[cols*cols];
+			multiplyTransposeB(ly, lr, lyl, cols, rank, cols);
+			multiplyTransposeB(lyl, gf, ret, cols, cols, rows);
+		}
+		return fromFlat(ret, cols, rows);
+	}
+
+	/**
+	 * Copies a matrix to a flat row-major array
+	 * @param m
+	 * @return
+	 */
+	public static double[] toFlat(double[][] m) {
+		int rows = m.length, cols = m[0].length;
+		double [] f = new double[rows*cols];
+		for(int y = 0; y < rows; y++) {
+			System.arraycopy(m[y], 0, f, y*cols, cols);
+		}
+		return f;
+	}
+
+	/**
+	 * Copies a flat row-major array to a matrix
+	 * @param f
+	 * @param rows
+	 * @param cols
+	 * @return
+	 */
+	public static double[][] fromFlat(double[] f, int rows, int cols) {
+		double [][] m = new double[rows][cols];
+		for(int y = 0; y < rows; y++) {
+			System.arraycopy(f, y*cols, m[y], 0, cols);
+		}
+		return m;
+	}
 
 	/**
-	 * Copies the content from a matrix to another, starting at the coordinates coor
-	 * @param from
-	 * @param to matrix to be changed
-	 * @param coor [y,x] coordinates
+	 * C = A * B, with A (n x k), B (k x m) and C (n x m) flat row-major matrices.
+	 * Blocked, with the innermost loop running over rows of B and C.
+	 * C must not be A or B
+	 * @param a
+	 * @param b
+	 * @param c result, overwritten
+	 * @param n
+	 * @param k
+	 * @param m
 	 */
-	private static void copyTo(double[][] from, double[][] to, int[] coor) {
-		int fylen = from.length+coor[0], fxlen = from[0].length+coor[1];
-		for(int y = coor[0]; y < fylen; y++) {
-			for(int x = coor[1]; x < fxlen; x++) {
-				to[y][x] = from[y-coor[0]][x-coor[1]];
+	public static void multiply(double[] a, double[] b, double[] c, int n, int k, int m) {
+		java.util.Arrays.fill(c, 0, n*m, 0);
+		for(int i0 = 0; i0 < n; i0 += BLOCK) {
+			int i1 = Math.min(i0 + BLOCK, n);
+			for(int p0 = 0; p0 < k; p0 += BLOCK) {
+				int p1 = Math.min(p0 + BLOCK, k);
+				for(int j0 = 0; j0 < m; j0 += BLOCK) {
+					int j1 = Math.min(j0 + BLOCK, m);
+					for(int i = i0; i < i1; i++) {
+						int ci = i*m, ai = i*k;
+						for(int p = p0; p < p1; p++) {
+							double aip = a[ai+p];
+							int bp = p*m;
+							for(int j = j0; j < j1; j++) {
+								c[ci+j] += aip * b[bp+j];
+							}
+						}
+					}
+				}
 			}
 		}
 	}
 
 	/**
-	 * Minimum value on the matrix bigger than m
+	 * C = A^T * B, with A (k x n), B (k x m) and C (n x m) flat row-major matrices,
+	 * without transposing A. When A and B are the same matrix, only the upper
+	 * triangle is calculated and then mirrored.
+	 * C must not be A or B
 	 * @param a
-	 * @param i 
-	 * @return
+	 * @param b
+	 * @param c result, overwritten
+	 * @param k
+	 * @param n
+	 * @param m
+	 */
+	public static void multiplyTransposeA(double[] a, double[] b, double[] c, int k, int n, int m) {
+		boolean symmetric = a == b && n == m;
+		java.util.Arrays.fill(c, 0, n*m, 0);
+		for(int i0 = 0; i0 < n; i0 += BLOCK) {
+			int i1 = Math.min(i0 + BLOCK, n);
+			for(int j0 = symmetric ? i0 : 0; j0 < m; j0 += BLOCK) {
+				int j1 = Math.min(j0 + BLOCK, m);
+				for(int p = 0; p < k; p++) {
+					int ap = p*n, bp = p*m;
+					for(int i = i0; i < i1; i++) {
+						double api = a[ap+i];
+						int ci = i*m;
+						for(int j = symmetric ? Math.max(i, j0) : j0; j < j1; j++) {
+							c[ci+j] += api * b[bp+j];
+						}
+					}
+				}
+			}
+		}
+		if(symmetric) {
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < i; j++) {
+					c[i*m+j] = c[j*m+i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * C = A * B^T, with A (n x k), B (m x k) and C (n x m) flat row-major matrices,
+	 * without transposing B: each value is the dot product of two rows.
+	 * C must not be A or B
+	 * @param a
+	 * @param b
+	 * @param c result, overwritten
+	 * @param n
+	 * @param k
+	 * @param m
 	 */
-	private static double min(double[][] a, int m) {
-		double min = a[0][0];
+	public static void multiplyTransposeB(double[] a, double[] b, double[] c, int n, int k, int m) {
+		for(int i0 = 0; i0 < n; i0 += BLOCK) {
+			int i1 = Math.min(i0 + BLOCK, n);
+			for(int j0 = 0; j0 < m; j0 += BLOCK) {
+				int j1 = Math.min(j0 + BLOCK, m);
+				for(int i = i0; i < i1; i++) {
+					int ai = i*k, ci = i*m;
+					for(int j = j0; j < j1; j++) {
+						int bj = j*k;
+						double acc = 0;
+						for(int p = 0; p < k; p++) {
+							acc += a[ai+p] * b[bj+p];
+						}
+						c[ci+j] = acc;
+					}
+				}
+			}
+		}
+	}
 
-		int ylen = a.length, xlen=a[0].length;
-		for(int y = 0; y < ylen; y++) {
-			for(int x = 0; x < xlen; x++) {
-				if(a[y][x]<min && a[y][x]>m)
-					min = a[y][x];
+	/**
+	 * A = A * B in place, with A (n x m) and B (m x m) flat row-major matrices,
+	 * using a single row as buffer
+	 * @param a
+	 * @param b
+	 * @param n
+	 * @param m
+	 */
+	public static void multiplyInPlace(double[] a, double[] b, int n, int m) {
+		double [] row = new double[m];
+		for(int i = 0; i < n; i++) {
+			int ai = i*m;
+			java.util.Arrays.fill(row, 0);
+			for(int p = 0; p < m; p++) {
+				double aip = a[ai+p];
+				int bp = p*m;
+				for(int j = 0; j < m; j++) {
+					row[j] += aip * b[bp+j];
+				}
+			}
+			System.arraycopy(row, 0, a, ai, m);
+		}
+	}
+
+	/**
+	 * Transposes a square flat row-major matrix in place
+	 * @param a
+	 * @param n
+	 */
+	public static void transposeInPlace(double[] a, int n) {
+		for(int i = 0; i < n; i++) {
+			for(int j = i+1; j < n; j++) {
+				double tmp = a[i*n+j];
+				a[i*n+j] = a[j*n+i];
+				a[j*n+i] = tmp;
 			}
 		}
-		return min;
+	}
+
+	/**
+	 * Multiplies all the values of a flat matrix by d, in place
+	 * @param a
+	 * @param d
+	 */
+	public static void scaleInPlace(double[] a, double d) {
+		for(int i = 0; i < a.length; i++) {
+			a[i] *= d;
+		}
 	}
 
 	/**
@@ -235,26 +415,11 @@ public class Matrix {
 	 * @return
 	 */
 	public static double[][] covarianceMatrix(ArrayList<double[]> cluster) {
-		double [][] a = new double[cluster.get(0).length][cluster.size()];
-		double [][] b = new double[cluster.size()][cluster.get(0).length];
-
-		int ylen = a.length, xlen=a[0].length;
-		for(int y = 0; y < ylen ;y++) {
-			for(int x = 0; x < xlen ;x++) {
-				a[y][x] = cluster.get(x)[y];
-				b[x][y] = cluster.get(x)[y];
-			}
-		}
-
-		double [][] covMat = multiply(a,b);
-
-		for(int y= 0; y < ylen; y++){
-			for(int x = 0; x < ylen; x++){
-				covMat[y][x] /= cluster.size();
-			}
+		ClusterStatistics stats = new ClusterStatistics(1, cluster.get(0).length);
+		for(double [] point : cluster) {
+			stats.add(0, point);
 		}
-
-		return covMat;
+		return stats.getCovariance(0);
 	}
 
 	/**
@@ -265,22 +430,22 @@ public class Matrix {
 	 */
 	public static double[][] multiply(double[][] a, double[][] b) {
 		double [][] result = new double [a.length][b[0].length];
-		//System.out.println("mult: " + a.length + " " + a[0].length + " " + b.length + " " + b[0].length + " ");
 		int ylen = result.length, xlen = result[0].length, klen = a[0].length;
-		double acc = 0;
 		for(int y = 0; y < ylen; y++){
-			for(int x = 0; x < xlen; x++){
-				acc = 0;
-				for(int k = 0; k < klen; k++){
-					acc += a[y][k]*b[k][x];
+			double [] ry = result[y], ay = a[y];
+			for(int k = 0; k < klen; k++){
+				double ayk = ay[k];
+				double [] bk = b[k];
+				for(int x = 0; x < xlen; x++){
+					ry[x] += ayk*bk[x];
 				}
-				result[y][x] = acc;
 			}
 		}
 		return result;
 	}
 
 	public static double[][] inverseMatrix(double  [][] m){
+		Metrics.MATRIX_INVERSIONS.increment();
 		m = clone(m);
 		//return inverseMatrix_new(m);
 		return inverseMatrix_old(m);